@@ -0,0 +1,345 @@
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Admission layer in front of a Checkout for bursty traffic.
+ *
+ * Requests belong to a class - DESK (staff), KIOSK (self-service) or BATCH (jobs). At most
+ * {@code limit} requests run at once; KIOSK and BATCH may only use a share of it, so desk
+ * staff always find headroom. Requests over the limit wait in a bounded per-class queue and
+ * are dispatched in class priority order. A request whose queue is full, or that waits
+ * longer than its class allows, is rejected immediately with a retry hint instead of piling up.
+ *
+ * The limit adapts to observed latency (AIMD): every completion within the target latency
+ * raises it by 1/limit, and a completion over the target cuts it by 10%, at most once per
+ * target interval.
+ */
+public class AdmissionController {
+
+    /**
+     * Request classes in priority order.
+     */
+    public enum RequestClass {
+        DESK(1.0, 64, 2_000),
+        KIOSK(0.75, 256, 250),
+        BATCH(0.5, 16, 5_000);
+
+        private final double share;
+        private final int defaultQueueCapacity;
+        private final long defaultMaxWaitMillis;
+
+        RequestClass(double share, int defaultQueueCapacity, long defaultMaxWaitMillis) {
+            this.share = share;
+            this.defaultQueueCapacity = defaultQueueCapacity;
+            this.defaultMaxWaitMillis = defaultMaxWaitMillis;
+        }
+    }
+
+    public static final int DEFAULT_INITIAL_LIMIT = 16;
+    public static final int DEFAULT_MAX_LIMIT = 256;
+    public static final long DEFAULT_TARGET_LATENCY_MILLIS = 20;
+
+    private static final int MIN_LIMIT = 1;
+    private static final double BACKOFF = 0.9;
+    private static final int CLASSES = RequestClass.values().length;
+
+    /**
+     * A queued request; granted by the releasing thread under the lock.
+     */
+    private static final class Waiter {
+        final Condition condition;
+        boolean granted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    private final Checkout checkout;
+    private final ReentrantLock lock;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+
+    // Guarded by lock
+    private final ArrayDeque<Waiter>[] queues;
+    private final int[] queueCapacity;
+    private final long[] maxWaitNanos;
+    private final long[] admitted;
+    private final long[] rejected;
+    private int running;
+    private double limit;
+    private long lastBackoffNanos;
+    private double serviceNanos; // moving average of completed request latency
+
+    public AdmissionController(Checkout checkout) {
+        this(checkout, DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT, DEFAULT_TARGET_LATENCY_MILLIS);
+    }
+
+    /**
+     * Creates an admission controller.
+     *
+     * @param checkout The checkout system to protect
+     * @param initialLimit Starting concurrency limit
+     * @param maxLimit Upper bound for the adaptive limit
+     * @param targetLatencyMillis Latency above which the limit is reduced
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public AdmissionController(Checkout checkout, int initialLimit, int maxLimit, long targetLatencyMillis) {
+        if (initialLimit < MIN_LIMIT || maxLimit < initialLimit || targetLatencyMillis <= 0) {
+            throw new IllegalArgumentException("need 1 <= initialLimit <= maxLimit and a positive target latency");
+        }
+        this.checkout = checkout;
+        this.lock = new ReentrantLock();
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.limit = initialLimit;
+        this.queues = new ArrayDeque[CLASSES];
+        this.queueCapacity = new int[CLASSES];
+        this.maxWaitNanos = new long[CLASSES];
+        this.admitted = new long[CLASSES];
+        this.rejected = new long[CLASSES];
+        for (RequestClass c : RequestClass.values()) {
+            queues[c.ordinal()] = new ArrayDeque<>();
+            queueCapacity[c.ordinal()] = c.defaultQueueCapacity;
+            maxWaitNanos[c.ordinal()] = TimeUnit.MILLISECONDS.toNanos(c.defaultMaxWaitMillis);
+        }
+    }
+
+    /**
+     * Changes the queue bound and maximum queueing time of one class.
+     *
+     * @param requestClass Class to configure
+     * @param capacity Maximum waiting requests; 0 rejects whenever the class is at its limit
+     * @param maxWaitMillis Longest a request may wait before it is rejected
+     */
+    public void configureQueue(RequestClass requestClass, int capacity, long maxWaitMillis) {
+        if (capacity < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("capacity and wait must not be negative");
+        }
+        lock.lock();
+        try {
+            queueCapacity[requestClass.ordinal()] = capacity;
+            maxWaitNanos[requestClass.ordinal()] = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- guarded operations
+
+    /**
+     * {@link Checkout#checkoutBook(Book, Patron)} under admission control.
+     *
+     * @throws AdmissionRejectedException if the request is shed
+     */
+    public double checkoutBook(RequestClass requestClass, Book book, Patron patron) {
+        return execute(requestClass, () -> checkout.checkoutBook(book, patron));
+    }
+
+    /**
+     * {@link Checkout#checkoutBooks(List, Patron)} under admission control; a basket counts as one request.
+     *
+     * @throws AdmissionRejectedException if the request is shed
+     */
+    public double[] checkoutBooks(RequestClass requestClass, List<Book> books, Patron patron) {
+        return execute(requestClass, () -> checkout.checkoutBooks(books, patron));
+    }
+
+    /**
+     * {@link Checkout#returnBook(String, Patron)} under admission control.
+     *
+     * @throws AdmissionRejectedException if the request is shed
+     */
+    public double returnBook(RequestClass requestClass, String isbn, Patron patron) {
+        return execute(requestClass, () -> checkout.returnBook(isbn, patron));
+    }
+
+    /**
+     * {@link Checkout#returnBooks(Patron, Collection)} under admission control.
+     *
+     * @throws AdmissionRejectedException if the request is shed
+     */
+    public double[] returnBooks(RequestClass requestClass, Patron patron, Collection<String> isbns) {
+        return execute(requestClass, () -> checkout.returnBooks(patron, isbns));
+    }
+
+    /**
+     * Runs any operation as a request of the given class.
+     *
+     * @param requestClass Priority class of the caller
+     * @param operation Work to run once admitted, on the calling thread
+     * @return The operation's result
+     * @throws AdmissionRejectedException if the request is shed
+     */
+    public <T> T execute(RequestClass requestClass, Supplier<T> operation) {
+        acquire(requestClass);
+        long begin = System.nanoTime();
+        try {
+            return operation.get();
+        } finally {
+            release(requestClass, System.nanoTime() - begin);
+        }
+    }
+
+    // ---------------------------------------------------------------- metrics
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueued(RequestClass requestClass) {
+        lock.lock();
+        try {
+            return queues[requestClass.ordinal()].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getAdmittedCount(RequestClass requestClass) {
+        lock.lock();
+        try {
+            return admitted[requestClass.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRejectedCount(RequestClass requestClass) {
+        lock.lock();
+        try {
+            return rejected[requestClass.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- admission
+
+    private void acquire(RequestClass requestClass) {
+        int c = requestClass.ordinal();
+        lock.lock();
+        try {
+            if (nothingQueuedAtOrAbove(c) && hasRoom(c)) {
+                admit(c);
+                return;
+            }
+            ArrayDeque<Waiter> queue = queues[c];
+            if (queue.size() >= queueCapacity[c]) {
+                throw reject(requestClass, queue.size() + 1, "queue full");
+            }
+            Waiter waiter = new Waiter(lock.newCondition());
+            queue.addLast(waiter);
+            long remaining = maxWaitNanos[c];
+            try {
+                while (!waiter.granted) {
+                    if (remaining <= 0) {
+                        queue.remove(waiter);
+                        throw reject(requestClass, queue.size() + 1, "queue wait exceeded");
+                    }
+                    remaining = waiter.condition.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.granted) {
+                    return; // already counted as running; let the caller proceed and release
+                }
+                queue.remove(waiter);
+                throw reject(requestClass, queue.size() + 1, "interrupted while queued");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(RequestClass requestClass, long latencyNanos) {
+        lock.lock();
+        try {
+            running--;
+            serviceNanos = serviceNanos == 0 ? latencyNanos : serviceNanos * 0.9 + latencyNanos * 0.1;
+            adjustLimit(latencyNanos);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjustLimit(long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            long now = System.nanoTime();
+            if (now - lastBackoffNanos >= targetLatencyNanos) {
+                limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+                lastBackoffNanos = now;
+            }
+        } else {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    /**
+     * Grants queued requests, highest priority first, while their class has room.
+     */
+    private void dispatch() {
+        for (int c = 0; c < CLASSES; c++) {
+            ArrayDeque<Waiter> queue = queues[c];
+            while (!queue.isEmpty() && hasRoom(c)) {
+                Waiter waiter = queue.pollFirst();
+                waiter.granted = true;
+                admit(c);
+                waiter.condition.signal();
+            }
+            if (!queue.isEmpty()) {
+                return; // lower classes never overtake a waiting higher class
+            }
+        }
+    }
+
+    private boolean hasRoom(int c) {
+        double share = RequestClass.values()[c].share;
+        return running < Math.max(MIN_LIMIT, (int) (limit * share));
+    }
+
+    private boolean nothingQueuedAtOrAbove(int c) {
+        for (int i = 0; i <= c; i++) {
+            if (!queues[i].isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void admit(int c) {
+        running++;
+        admitted[c]++;
+    }
+
+    /**
+     * Builds the rejection; the hint is the time for the backlog ahead of the caller to drain.
+     */
+    private AdmissionRejectedException reject(RequestClass requestClass, int ahead, String reason) {
+        rejected[requestClass.ordinal()]++;
+        double perSlot = serviceNanos / Math.max(1.0, limit * requestClass.share);
+        long retryMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) (ahead * perSlot)));
+        return new AdmissionRejectedException(requestClass, retryMillis,
+                requestClass + " request rejected (" + reason + "), retry after " + retryMillis + " ms");
+    }
+}
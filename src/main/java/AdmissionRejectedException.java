@@ -0,0 +1,30 @@
+/**
+ * Thrown by {@link AdmissionController} when a request is shed instead of queued:
+ * its class queue is full, or it waited longer than its class allows.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final AdmissionController.RequestClass requestClass;
+    private final long retryAfterMillis;
+
+    public AdmissionRejectedException(AdmissionController.RequestClass requestClass, long retryAfterMillis,
+                                      String message) {
+        super(message);
+        this.requestClass = requestClass;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public AdmissionController.RequestClass getRequestClass() {
+        return requestClass;
+    }
+
+    /**
+     * Suggested delay before retrying, from the current backlog and service time.
+     *
+     * @return Milliseconds, at least 1
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -1,19 +1,27 @@
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Represents a book in the library system.
  * Books have ISBN numbers, metadata, and availability status.
  */
 public class Book {
+    private static final AtomicIntegerFieldUpdater<Book> LOAN_UPDATES_BEGUN =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "loanUpdatesBegun");
+    private static final AtomicIntegerFieldUpdater<Book> LOAN_UPDATES_ENDED =
+            AtomicIntegerFieldUpdater.newUpdater(Book.class, "loanUpdatesEnded");
+
     private String isbn;
     private String title;
     private String author;
     private BookType type;
-    private boolean available;
     private boolean referenceOnly;
     private int totalCopies;
-    private int availableCopies;
+    private CopyBitset copies; // per-copy state, 2 bits per physical copy
+    // Checkouts/returns that have started and finished updating both a copy and a patron's loans
+    private volatile int loanUpdatesBegun;
+    private volatile int loanUpdatesEnded;
 
     public enum BookType {
         FICTION,
@@ -23,6 +31,17 @@ public class Book {
         CHILDREN
     }
 
+    /**
+     * State of a single physical copy.
+     * The declaration order is the on-bitset encoding used by {@link CopyBitset} - do not reorder.
+     */
+    public enum CopyState {
+        AVAILABLE,
+        OUT,
+        LOST,
+        IN_REPAIR
+    }
+
     /**
      * Creates a new Book with the specified details.
      *
@@ -42,11 +61,9 @@ public class Book {
 
         // Reference books never circulate - always unavailable for checkout
         if (this.referenceOnly) {
-            this.availableCopies = 0;
-            this.available = false;
+            this.copies = new CopyBitset(totalCopies, CopyState.OUT);
         } else {
-            this.availableCopies = totalCopies;
-            this.available = true;
+            this.copies = new CopyBitset(totalCopies, CopyState.AVAILABLE);
         }
     }
 
@@ -68,7 +85,7 @@ public class Book {
     }
 
     public boolean isAvailable() {
-        return availableCopies > 0;
+        return copies.availableCount() > 0;
     }
 
     public boolean isReferenceOnly() {
@@ -80,42 +97,163 @@ public class Book {
     }
 
     public int getAvailableCopies() {
-        return availableCopies;
+        return copies.availableCount();
+    }
+
+    /**
+     * Returns the state of one physical copy.
+     *
+     * @param copy Copy index (0 to totalCopies - 1)
+     * @return The copy's current state
+     */
+    public CopyState getCopyState(int copy) {
+        return copies.get(copy);
+    }
+
+    /**
+     * Counts the copies currently in the given state.
+     *
+     * @param state The state to count
+     * @return Number of copies in that state
+     */
+    public int getCopyCount(CopyState state) {
+        return copies.count(state);
     }
 
     // Setters
+    /**
+     * Sets the number of available copies.
+     * The first {@code copies} copies become AVAILABLE and the rest are marked OUT.
+     *
+     * Every copy is tracked individually, so more copies than the book has cannot be
+     * available; such values are rejected instead of being stored.
+     *
+     * @param copies Number of available copies, 0 to totalCopies
+     * @throws IllegalArgumentException if copies is negative or above totalCopies
+     */
     public void setAvailableCopies(int copies) {
-        this.availableCopies = copies;
-        this.available = (copies > 0);
+        if (copies < 0 || copies > totalCopies) {
+            throw new IllegalArgumentException("available copies must be in [0, " + totalCopies + "]: " + copies);
+        }
+        this.copies.resetAvailable(copies);
     }
 
     /**
      * Decrements available copies when book is checked out.
      */
     public void checkout() {
-        if (availableCopies > 0) {
-            availableCopies--;
-        }
-        this.available = (availableCopies > 0);
+        checkoutCopy();
+    }
+
+    /**
+     * Checks out the lowest-numbered available copy.
+     *
+     * @return Index of the copy now on loan, or -1 if no copy is available
+     */
+    public int checkoutCopy() {
+        return copies.allocate();
+    }
+
+    /**
+     * Checks out one specific copy.
+     *
+     * @param copy Copy index
+     * @return true if the copy was available and is now on loan
+     */
+    public boolean checkoutCopy(int copy) {
+        return copies.transition(copy, CopyState.AVAILABLE, CopyState.OUT);
     }
 
     /**
      * Increments available copies when book is returned.
+     * The lowest-numbered copy that is out is put back on the shelf.
      */
     public void returnBook() {
-        if (availableCopies < 100) {
-            availableCopies++;
-        }
-        this.available = (availableCopies > 0);
+        copies.releaseAny();
+    }
+
+    /**
+     * Returns a specific copy to the shelf.
+     *
+     * @param copy Copy index that was on loan
+     * @return true if the copy was out and is now available
+     */
+    public boolean returnCopy(int copy) {
+        return copies.transition(copy, CopyState.OUT, CopyState.AVAILABLE);
+    }
+
+    /**
+     * Marks a copy as lost. Only copies on the shelf or on loan can be lost.
+     *
+     * @param copy Copy index
+     * @return true if the copy is now LOST
+     */
+    public boolean markCopyLost(int copy) {
+        return copies.transition(copy, CopyState.OUT, CopyState.LOST)
+                || copies.transition(copy, CopyState.AVAILABLE, CopyState.LOST);
+    }
+
+    /**
+     * Sends an available copy to repair.
+     *
+     * @param copy Copy index
+     * @return true if the copy was on the shelf and is now IN_REPAIR
+     */
+    public boolean sendCopyToRepair(int copy) {
+        return copies.transition(copy, CopyState.AVAILABLE, CopyState.IN_REPAIR);
+    }
+
+    /**
+     * Puts a lost or repaired copy back on the shelf.
+     *
+     * @param copy Copy index
+     * @return true if the copy was LOST or IN_REPAIR and is now available
+     */
+    public boolean restoreCopy(int copy) {
+        return copies.transition(copy, CopyState.IN_REPAIR, CopyState.AVAILABLE)
+                || copies.transition(copy, CopyState.LOST, CopyState.AVAILABLE);
+    }
+
+    /**
+     * Forces one copy into a state, e.g. when a replica applies the primary's copy table.
+     * Not atomic with respect to concurrent circulation on the same copy.
+     *
+     * @param copy Copy index
+     * @param state New state
+     */
+    void setCopyState(int copy, CopyState state) {
+        CopyState current;
+        do {
+            current = getCopyState(copy);
+        } while (current != state && !copies.transition(copy, current, state));
     }
 
     public void resetAvailability() {
-        this.availableCopies = this.totalCopies;
-        this.available = true;
+        this.copies.resetAvailable(this.totalCopies);
+    }
+
+    /**
+     * Brackets a change that moves a copy and a patron loan together, so readers such as
+     * the inventory auditor can tell a half-applied change from real drift.
+     */
+    void beginLoanUpdate() {
+        LOAN_UPDATES_BEGUN.incrementAndGet(this);
+    }
+
+    void endLoanUpdate() {
+        LOAN_UPDATES_ENDED.incrementAndGet(this);
+    }
+
+    int loanUpdatesBegun() {
+        return loanUpdatesBegun;
+    }
+
+    int loanUpdatesEnded() {
+        return loanUpdatesEnded;
     }
 
     public boolean checkAvailability() {
-        return this.available;
+        return isAvailable();
     }
 
     @Override
@@ -140,6 +278,6 @@ public class Book {
 
     @Override
     public String toString() {
-        return "Book[isbn=" + isbn + ",title=" + title + ",author=" + author + ",type=" + type + ",availableCopies=" + availableCopies + "/" + totalCopies + "]";
+        return "Book[isbn=" + isbn + ",title=" + title + ",author=" + author + ",type=" + type + ",availableCopies=" + getAvailableCopies() + "/" + totalCopies + "]";
     }
 }
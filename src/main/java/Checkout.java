@@ -1,9 +1,20 @@
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages library checkout operations.
@@ -11,42 +22,316 @@ import java.util.Map;
  */
 public class Checkout {
     public static double MAX_FINE_AMOUNT = 25.0;
+    public static final int DEFAULT_ISBN_FILTER_CAPACITY = 1024;
+    public static final double DEFAULT_ISBN_FILTER_FPP = 0.01;
+    // findBook samples 1 in 16 lookups and re-decides every 256 samples whether to use the filter
+    private static final int ISBN_FILTER_SAMPLE_MASK = 15;
+    private static final int ISBN_FILTER_WINDOW = 256;
+    private static final int ISBN_FILTER_MIN_MISSES = ISBN_FILTER_WINDOW * 9 / 10;
 
-    private Map<String, Book> bookList; // ISBN -> Book
+    private Map<String, Book> bookList; // ISBN -> Book, concurrent reads, writes also guarded by itself
+    private Map<String, Book> inventoryView; // read-only view handed out by getInventory()
+    private volatile IsbnBloomFilter isbnFilter; // fronts bookList lookups, rebuilt on growth
+    private volatile boolean isbnFilterActive; // findBook consults the filter, see findBook
+    private final AtomicInteger sampledLookups = new AtomicInteger();
+    private final AtomicInteger sampledMisses = new AtomicInteger();
+    private double isbnFilterFpp;
     private Map<String, Patron> patrons; // PatronID -> Patron
-    private List<Transaction> history; //
+    private PatronStore patronStore; // same object as patrons when disk-backed, else null
+    private List<Transaction> history; // guarded by itself; appended by sync callers and event loops
+    private PatronHistoryIndex historyIndex; // positions in history per patron, guarded by history
+    private volatile CirculationEventLoop[] loops; // started lazily by the async API
+    private DueDateIndex dueIndex; // open loans by due date, for reminder runs
+    private volatile CirculationListener listener; // e.g. replication publisher, may be null
+    private volatile Set<String> touchedIsbns; // ISBNs whose loans changed, only once an auditor asks
+    private volatile Map<String, Set<String>> loanHolders; // ISBN -> holder IDs, only once an auditor asks
+    private volatile TransactionLog log; // replaces history and historyIndex in allocation-free mode
+    private final AtomicLong unrecordedTransactions = new AtomicLong(); // applied, but lost from history
+    private volatile RuntimeException historyFailure; // last failed history write, null if none
 
     /**
-     * Inner class to track checkout transactions.
+     * Inner class to track checkout transactions. Dates are epoch days.
+     * Holds the patron's ID rather than the Patron, so the history never keeps a patron
+     * evicted from a PatronStore reachable.
      */
-    private static class Transaction {
-        Patron patron;
+    static class Transaction {
+        String patronId;
         Book book;
-        LocalDate checkoutDate;
-        LocalDate dueDate;
-        LocalDate returnDate;
+        int checkoutDay;
+        int dueDay;
+        int returnDay; // TransactionLog.OPEN while on loan
+        int copy; // physical copy on loan, -1 if unknown
 
-        Transaction(Patron patron, Book book, LocalDate checkoutDate, LocalDate dueDate) {
-            this.patron = patron;
+        Transaction(String patronId, Book book, int checkoutDay, int dueDay, int copy) {
+            this.patronId = patronId;
             this.book = book;
-            this.checkoutDate = checkoutDate;
-            this.dueDate = dueDate;
-            this.returnDate = null;
+            this.checkoutDay = checkoutDay;
+            this.dueDay = dueDay;
+            this.returnDay = TransactionLog.OPEN;
+            this.copy = copy;
+        }
+    }
+
+    /**
+     * Read-only snapshot of one transaction, as shown in a patron's borrowing history.
+     */
+    public static final class LoanRecord {
+        private final String isbn;
+        private final String title;
+        private final LocalDate checkoutDate;
+        private final LocalDate dueDate;
+        private final LocalDate returnDate;
+
+        LoanRecord(Transaction t) {
+            this(t.book, t.checkoutDay, t.dueDay, t.returnDay);
+        }
+
+        LoanRecord(Book book, int checkoutDay, int dueDay, int returnDay) {
+            this.isbn = book.getIsbn();
+            this.title = book.getTitle();
+            this.checkoutDate = LocalDate.ofEpochDay(checkoutDay);
+            this.dueDate = LocalDate.ofEpochDay(dueDay);
+            this.returnDate = returnDay == TransactionLog.OPEN ? null : LocalDate.ofEpochDay(returnDay);
+        }
+
+        public String getIsbn() {
+            return isbn;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public LocalDate getCheckoutDate() {
+            return checkoutDate;
+        }
+
+        public LocalDate getDueDate() {
+            return dueDate;
+        }
+
+        /**
+         * @return Date the book came back, or null while it is still on loan
+         */
+        public LocalDate getReturnDate() {
+            return returnDate;
+        }
+
+        public boolean isOpen() {
+            return returnDate == null;
         }
     }
 
     public Checkout() {
-        this.bookList = new HashMap<>();
+        this.bookList = new ConcurrentHashMap<>();
+        this.inventoryView = Collections.unmodifiableMap(bookList);
+        this.isbnFilterFpp = DEFAULT_ISBN_FILTER_FPP;
+        this.isbnFilter = new IsbnBloomFilter(DEFAULT_ISBN_FILTER_CAPACITY, isbnFilterFpp);
         this.patrons = new HashMap<>();
         this.history = new ArrayList<>();
+        this.historyIndex = new PatronHistoryIndex();
+        this.dueIndex = new DueDateIndex();
+    }
+
+    /**
+     * Creates a checkout system whose patrons live in a disk-backed store
+     * and are hydrated on demand instead of all being held in memory.
+     *
+     * @param patronStore Store used for all patron lookups and registrations
+     */
+    public Checkout(PatronStore patronStore) {
+        this();
+        this.patrons = patronStore;
+        this.patronStore = patronStore;
     }
 
+    /**
+     * Adds a book to the inventory, replacing any book with the same ISBN.
+     *
+     * @param book The book to add
+     * @throws IllegalArgumentException if the book has no ISBN
+     */
     public void addBook(Book book) {
-        bookList.put(book.getIsbn(), book);
+        if (book.getIsbn() == null) {
+            throw new IllegalArgumentException("book has no ISBN: " + book);
+        }
+        synchronized (bookList) {
+            IsbnBloomFilter filter = isbnFilter;
+            if (filter.isFull()) {
+                filter = rebuildIsbnFilter(filter.capacity() * 2, isbnFilterFpp);
+            }
+            // Filter first: the concurrent map's put/get ordering then guarantees that a reader
+            // that finds the book in the map also sees its filter bits
+            filter.add(book.getIsbn());
+            bookList.put(book.getIsbn(), book);
+        }
+        CirculationListener l = listener;
+        if (l != null) {
+            l.bookAdded(book);
+        }
     }
 
     public void registerPatron(Patron patron) {
-        patrons.put(patron.getPatronId(), patron);
+        synchronized (patrons) {
+            patrons.put(patron.getPatronId(), patron);
+        }
+        if (loanHolders != null) {
+            for (String isbn : patron.loanedIsbns()) {
+                holderAdded(isbn, patron.getPatronId());
+            }
+        }
+        CirculationListener l = listener;
+        if (l != null) {
+            l.patronRegistered(patron);
+        }
+    }
+
+    /**
+     * Adds every book whose ISBN is not already in the catalog.
+     * Existing titles are left untouched; the ISBN filter answers most "new title" checks
+     * without probing the inventory map. Books without an ISBN are skipped.
+     *
+     * @param books Books from a vendor feed or another catalog
+     * @return Number of books added
+     */
+    public int mergeCatalog(Collection<Book> books) {
+        int added = 0;
+        for (Book book : books) {
+            if (book != null && book.getIsbn() != null && findBook(book.getIsbn()) == null) {
+                addBook(book);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Looks up a book by ISBN. When most recent lookups were misses, ISBNs the library does
+     * not own are rejected by the ISBN filter before touching the inventory map.
+     *
+     * A concurrent map lookup is about as fast as a filter probe, so the filter only pays off
+     * for miss-dominated traffic (break-even near 90% misses with 2M titles) and costs up to
+     * half the throughput on hit-heavy traffic. findBook therefore samples its own outcomes and
+     * consults the filter only while at least 90% of the sampled lookups missed.
+     *
+     * @param isbn The ISBN to look up
+     * @return The book, or null if the library does not own it
+     */
+    public Book findBook(String isbn) {
+        if (isbn == null) {
+            return null;
+        }
+        Book book = isbnFilterActive && !isbnFilter.mightContain(isbn) ? null : bookList.get(isbn);
+        if ((ThreadLocalRandom.current().nextInt() & ISBN_FILTER_SAMPLE_MASK) == 0) {
+            sampleLookup(book == null);
+        }
+        return book;
+    }
+
+    /**
+     * Records one sampled findBook outcome and, at the end of each window, decides whether
+     * the next window uses the filter. Concurrent samples may straddle a window boundary,
+     * which only shifts the decision by a sample or two.
+     */
+    private void sampleLookup(boolean miss) {
+        if (miss) {
+            sampledMisses.incrementAndGet();
+        }
+        if (sampledLookups.incrementAndGet() % ISBN_FILTER_WINDOW == 0) {
+            isbnFilterActive = sampledMisses.getAndSet(0) >= ISBN_FILTER_MIN_MISSES;
+        }
+    }
+
+    /**
+     * @return true while findBook consults the ISBN filter
+     */
+    boolean isIsbnFilterActive() {
+        return isbnFilterActive;
+    }
+
+    /**
+     * Resizes the ISBN filter for an expected catalog size and false-positive rate.
+     * The filter also grows on its own (doubling) as books are added.
+     *
+     * @param expectedTitles Number of titles the filter should hold before its next rebuild
+     * @param falsePositiveRate Target false-positive rate, e.g. 0.01
+     * @throws IllegalArgumentException if expectedTitles is not positive or the rate is not
+     *         in (0, 1); the current filter and rate are kept
+     */
+    public void configureIsbnFilter(int expectedTitles, double falsePositiveRate) {
+        if (expectedTitles < 1 || !(falsePositiveRate > 0.0 && falsePositiveRate < 1.0)) {
+            throw new IllegalArgumentException("expected titles must be positive and the false positive rate in (0, 1): "
+                    + expectedTitles + ", " + falsePositiveRate);
+        }
+        synchronized (bookList) {
+            rebuildIsbnFilter(Math.max(expectedTitles, bookList.size() + 1), falsePositiveRate);
+            isbnFilterFpp = falsePositiveRate;
+        }
+    }
+
+    private IsbnBloomFilter rebuildIsbnFilter(int capacity, double falsePositiveRate) {
+        IsbnBloomFilter rebuilt = new IsbnBloomFilter(capacity, falsePositiveRate);
+        for (String isbn : bookList.keySet()) {
+            rebuilt.add(isbn);
+        }
+        isbnFilter = rebuilt;
+        return rebuilt;
+    }
+
+    /**
+     * Switches to allocation-free circulation for sustained high request rates.
+     *
+     * Once the patrons' loan tables and the transaction log have reached their working size,
+     * checkouts, renewals and returns allocate nothing: dates are epoch-day ints, the history
+     * is kept in a preallocated column log instead of Transaction objects, and the due-date
+     * index is no longer updated per loan but rebuilt from the patrons' loans when a reminder
+     * run asks for it. Listeners, JFR events and audit tracking keep working but allocate
+     * their event data while they are enabled.
+     *
+     * @param transactionCapacity Transactions to preallocate; the log doubles past it
+     * @throws IllegalStateException if transactions have already been recorded
+     */
+    public void enableAllocationFreeMode(int transactionCapacity) {
+        if (transactionCapacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        synchronized (history) {
+            if (log != null) {
+                return;
+            }
+            if (!history.isEmpty()) {
+                throw new IllegalStateException("allocation-free mode must be enabled before the first checkout");
+            }
+            log = new TransactionLog(transactionCapacity, patrons.size());
+        }
+        dueIndex.clear();
+    }
+
+    public boolean isAllocationFree() {
+        return log != null;
+    }
+
+    /**
+     * Sets the listener notified of every circulation state change (null to remove).
+     *
+     * @param listener The listener, e.g. a ReplicationPublisher
+     */
+    public void setCirculationListener(CirculationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports copy changes made directly on a book (markCopyLost, sendCopyToRepair,
+     * restoreCopy, setAvailableCopies) to the circulation listener, so replicas see them.
+     * Changes that are not reported are invisible to the listener.
+     *
+     * @param book The book whose copies changed
+     */
+    public void copiesChanged(Book book) {
+        CirculationListener l = listener;
+        if (l != null && book != null) {
+            l.copiesChanged(book);
+        }
     }
 
     /**
@@ -140,14 +425,159 @@ public class Checkout {
      * @return Status code indicating result (see above)
      */
     public double checkoutBook(Book book, Patron patron) {
-//        Implement me in Assignment 3
-        // Normal success
+        patron = resolve(patron);
+        return checkoutBook(book, patron, validatePatronEligibility(patron), CirculationClock.today(), null, null);
+    }
+
+    /**
+     * Checks out a basket of books for one patron, e.g. everything scanned at a kiosk.
+     *
+     * Each item gets exactly the code checkoutBook(book, patron) would have returned had the
+     * items been checked out one after another in list order (so a repeated book is a renewal
+     * and items past the patron's limit get 3.2). The patron is validated once, the clock and
+     * the circulation policy are read once and all transactions are recorded in a single batch.
+     *
+     * @param books Books to check out, in scan order (elements may be null)
+     * @param patron The patron checking out the books (can be null)
+     * @return Status code per book, same index as {@code books}
+     */
+    public double[] checkoutBooks(List<Book> books, Patron patron) {
+        patron = resolve(patron);
+        double[] codes = new double[books.size()];
+        double eligibility = validatePatronEligibility(patron);
+        int today = CirculationClock.today();
+        CirculationPolicy policy = CirculationPolicy.current();
+        List<Transaction> pending = new ArrayList<>(books.size());
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = checkoutBook(books.get(i), patron, eligibility, today, policy, pending);
+        }
+        recordTransactions(pending);
+        return codes;
+    }
+
+    /**
+     * Renews every book the patron currently holds.
+     *
+     * @param patron The patron renewing
+     * @return ISBN to the checkoutBook code for that renewal (0.1 on success, the eligibility
+     *         code if the patron may not renew, 2.1 if the book is no longer in the inventory)
+     */
+    public Map<String, Double> renewAll(Patron patron) {
+        Map<String, Double> codes = new LinkedHashMap<>();
+        if (patron == null) {
+            return codes;
+        }
+        patron = resolve(patron);
+        double eligibility = validatePatronEligibility(patron);
+        int today = CirculationClock.today();
+        CirculationPolicy policy = CirculationPolicy.current();
+        for (String isbn : new ArrayList<>(patron.getCheckedOutBooks().keySet())) {
+            // Held ISBNs are owned; skip the ISBN filter as returns do
+            codes.put(isbn, checkoutBook(bookList.get(isbn), patron, eligibility, today, policy, null));
+        }
+        return codes;
+    }
+
+    /**
+     * Checkout with a precomputed eligibility code.
+     * Transactions go to {@code pending} when given (the caller records the batch later),
+     * otherwise straight to the history.
+     */
+    double checkoutBook(Book book, Patron patron, double eligibility, List<Transaction> pending) {
+        return checkoutBook(book, resolve(patron), eligibility, CirculationClock.today(), null, pending);
+    }
+
+    /**
+     * Same as above with the checkout day and policy fixed by the caller, so a batch reads
+     * the clock once and applies one policy version. A null policy means "current policy".
+     */
+    private double checkoutBook(Book book, Patron patron, double eligibility, int today,
+                                CirculationPolicy policy, List<Transaction> pending) {
+        if (!CirculationEvents.isEnabled()) {
+            return processCheckout(book, patron, eligibility, today, policy, pending);
+        }
+        CirculationEvents.CirculationEvent event = CirculationEvents.beginCheckout(book, patron, eligibility);
+        double code = processCheckout(book, patron, eligibility, today, policy, pending);
+        CirculationEvents.end(event, patron, book == null ? null : book.getType(), code);
+        return code;
+    }
+
+    private double processCheckout(Book book, Patron patron, double eligibility, int today,
+                                   CirculationPolicy policy, List<Transaction> pending) {
+        if (eligibility != 0.0) {
+            return eligibility;
+        }
+        if (book == null) {
+            return 2.1;
+        }
+        if (book.isReferenceOnly()) {
+            return 5.0;
+        }
+
+        // One policy snapshot for the whole operation, even if it is reloaded meanwhile
+        if (policy == null) {
+            policy = CirculationPolicy.current();
+        }
+        int limit = policy.getMaxCheckoutLimit(patron.getType());
+        int dueDay = today + policy.getLoanPeriodDays(patron.getType());
+        boolean indexDueDates = log == null;
+
+        // Renewal: only the due date moves, no copy changes hands
+        int previousDue = patron.getDueEpochDay(book.getIsbn());
+        if (previousDue != StringIntMap.NONE) {
+            patron.addCheckedOutBook(book.getIsbn(), dueDay);
+            if (indexDueDates) {
+                dueIndex.add(patron.getPatronId(), book.getIsbn(), dueDay);
+            }
+            renewOpen(patron, book, dueDay, pending);
+            CirculationListener l = listener;
+            if (l != null) {
+                l.renewed(patron, book, LocalDate.ofEpochDay(dueDay));
+            }
+            return 0.1;
+        }
+
+        if (!book.isAvailable()) {
+            return 2.0;
+        }
+        if (patron.getCheckoutCount() >= limit) {
+            return 3.2;
+        }
+
+        // Another desk may have taken the last copy since the availability check
+        book.beginLoanUpdate();
+        int copy = book.checkoutCopy();
+        if (copy < 0) {
+            book.endLoanUpdate();
+            return 2.0;
+        }
+        patron.addCheckedOutBook(book.getIsbn(), dueDay);
+        holderAdded(book.getIsbn(), patron.getPatronId());
+        book.endLoanUpdate();
+        if (indexDueDates) {
+            dueIndex.add(patron.getPatronId(), book.getIsbn(), dueDay);
+        }
+        markTouched(book.getIsbn());
+        CirculationListener l = listener;
+        if (l != null) {
+            l.checkedOut(patron, book, copy, LocalDate.ofEpochDay(dueDay));
+        }
+        recordCheckout(patron, book, today, dueDay, copy, pending);
+
+        if (patron.getOverdueCount() > 0) {
+            return 1.0;
+        }
+        if (patron.getCheckoutCount() >= limit - 2) {
+            return 1.1;
+        }
         return 0.0;
     }
 
 
     /**
      * Calculates the fine amount for an overdue book. Assume this javadoc is correct.
+     * The rules below are the default {@link CirculationPolicy}; a reloaded policy may
+     * change the rates, tiers and cap.
      *
      * Fine calculation rules:
      * - First 7 days overdue: $0.25 per day
@@ -167,35 +597,7 @@ public class Checkout {
      * @return Fine amount in dollars
      */
     public double calculateFine(int numOfDays, Book.BookType bookType) {
-        if (numOfDays <= 0) {
-            return 0.0;
-        }
-
-        double fine = 0.0;
-
-        // First 7 days: $0.25/day
-        int days1 = Math.min(numOfDays, 7);
-        fine += days1 * 0.25;
-
-        // Days 8-14: $0.50/day
-        if (numOfDays > 7) {
-            int days2 = Math.min(numOfDays - 7, 7);
-            fine += days2 * 0.50;
-        }
-
-        // Days 15+: $1.00/day
-        if (numOfDays > 14) {
-            int days3 = numOfDays - 14;
-            fine += days3 * 1.00;
-        }
-
-        // Double rate for REFERENCE and TEXTBOOK
-        if (bookType == Book.BookType.REFERENCE || bookType == Book.BookType.TEXTBOOK) {
-            fine *= 2.0;
-        }
-
-        // Cap at maximum fine amount
-        return Math.min(fine, MAX_FINE_AMOUNT);
+        return CirculationPolicy.current().calculateFine(numOfDays, bookType);
     }
 
     /**
@@ -255,38 +657,499 @@ public class Checkout {
      * @return Fine amount charged (0.0 if not overdue)
      */
     public double returnBook(String isbn, Patron patron) {
-        if (patron == null || !patron.hasBookCheckedOut(isbn)) {
+        return returnBook(isbn, resolve(patron), CirculationClock.today(), null, null);
+    }
+
+    /**
+     * Returns several books for one patron, e.g. a book-drop bin at the end of term.
+     *
+     * Each item gets the same result as returnBook(isbn, patron) called in collection order.
+     * The patron's open transactions for all the ISBNs are found in one walk of the patron's
+     * history index instead of one per book.
+     *
+     * @param patron The patron returning the books
+     * @param isbns ISBNs being returned
+     * @return Fine per ISBN in iteration order, -1.0 for an invalid return
+     */
+    public double[] returnBooks(Patron patron, Collection<String> isbns) {
+        double[] fines = new double[isbns.size()];
+        if (patron == null) {
+            Arrays.fill(fines, -1.0);
+            return fines;
+        }
+        patron = resolve(patron);
+        int today = CirculationClock.today();
+        // The column log finds each open loan near the head of the patron's chain already
+        Map<String, Transaction> openLoans = log == null ? findOpen(patron, isbns) : null;
+        int i = 0;
+        for (String isbn : isbns) {
+            fines[i++] = returnBook(isbn, patron, today, null, openLoans);
+        }
+        return fines;
+    }
+
+    /**
+     * Return that also looks for the open loan among not-yet-recorded batch transactions.
+     */
+    double returnBook(String isbn, Patron patron, List<Transaction> pending) {
+        return returnBook(isbn, resolve(patron), CirculationClock.today(), pending, null);
+    }
+
+    /**
+     * Return with the day fixed by the caller and, for bulk returns, the patron's open
+     * transactions already looked up by ISBN.
+     */
+    private double returnBook(String isbn, Patron patron, int today, List<Transaction> pending,
+                              Map<String, Transaction> openLoans) {
+        if (!CirculationEvents.isEnabled()) {
+            return processReturn(isbn, patron, today, pending, openLoans);
+        }
+        CirculationEvents.CirculationEvent event = CirculationEvents.beginReturn();
+        double fine = processReturn(isbn, patron, today, pending, openLoans);
+        Book book = isbn == null ? null : bookList.get(isbn);
+        CirculationEvents.end(event, patron, book == null ? null : book.getType(), fine);
+        return fine;
+    }
+
+    /**
+     * The patron instance to update. With a disk-backed store this is the store's instance
+     * for the patron's id, so a loan recorded on a patron evicted since it was looked up is
+     * not lost.
+     */
+    private Patron resolve(Patron patron) {
+        return patronStore == null ? patron : patronStore.resolve(patron);
+    }
+
+    private double processReturn(String isbn, Patron patron, int today, List<Transaction> pending,
+                                 Map<String, Transaction> openLoans) {
+        int dueDay = patron == null ? StringIntMap.NONE : patron.getDueEpochDay(isbn);
+        if (dueDay == StringIntMap.NONE) {
             return -1.0;
         }
 
+        // The patron holds this ISBN, so it is almost always owned and the ISBN filter
+        // would only add a probe; returns go straight to the inventory map
         Book book = bookList.get(isbn);
         if (book == null) {
             return -1.0;
         }
 
-        LocalDate dueDate = patron.getCheckedOutBooks().get(isbn);
-        LocalDate today = LocalDate.now();
-        long daysOverdue = ChronoUnit.DAYS.between(dueDate, today);
+        int daysOverdue = today - dueDay;
 
         double fine = 0.0;
         if (daysOverdue > 0) {
-            fine = calculateFine((int) daysOverdue, book.getType());
+            fine = calculateFine(daysOverdue, book.getType());
             patron.addFine(fine);
+            if (CirculationEvents.isEnabled()) {
+                CirculationEvents.fineAssessed(patron, book.getType(), daysOverdue, fine);
+            }
+        }
+        CirculationListener l = listener;
+        if (l != null && fine > 0) {
+            l.fineAssessed(patron, book, fine);
         }
 
-        // Update patron and book
+        // Update transaction history to mark book as returned
+        int loanedCopy = closeOpen(patron, book, today, pending, openLoans);
+
+        // Update patron and book - put back the exact copy the patron borrowed when we know it
+        book.beginLoanUpdate();
         patron.removeCheckedOutBook(isbn);
-        book.returnBook();
+        holderRemoved(isbn, patron.getPatronId());
+        if (log == null) {
+            dueIndex.remove(patron.getPatronId(), isbn);
+        }
+        markTouched(isbn);
+        int copy = loanedCopy >= 0 && book.getCopyState(loanedCopy) == Book.CopyState.OUT ? loanedCopy : -1;
+        if (l != null) {
+            l.returned(patron, book, copy);
+        }
+        if (copy < 0 || !book.returnCopy(copy)) {
+            book.returnBook();
+        }
+        book.endLoanUpdate();
 
-        // Update transaction history to mark book as returned
-        for (Transaction t : history) {
-            if (t.patron.equals(patron) && t.book.equals(book) && t.returnDate == null) {
-                t.returnDate = today;
-                break;
+        return fine;
+    }
+
+    /**
+     * Records a new loan in the column log, the caller's pending batch or the history.
+     */
+    private void recordCheckout(Patron patron, Book book, int today, int dueDay, int copy,
+                                List<Transaction> pending) {
+        TransactionLog txLog = log;
+        if (txLog != null) {
+            synchronized (history) {
+                txLog.add(patron, book, today, dueDay, copy);
+            }
+            return;
+        }
+        Transaction transaction = new Transaction(patron.getPatronId(), book, today, dueDay, copy);
+        if (pending != null) {
+            pending.add(transaction);
+        } else {
+            synchronized (history) {
+                appendHistory(transaction);
             }
         }
+    }
 
-        return fine;
+    /**
+     * Moves the due day of the patron's open transaction for a renewed book.
+     */
+    private void renewOpen(Patron patron, Book book, int dueDay, List<Transaction> pending) {
+        TransactionLog txLog = log;
+        if (txLog != null) {
+            synchronized (history) {
+                int id = txLog.findOpen(patron.getPatronId(), book.getIsbn());
+                if (id >= 0) {
+                    txLog.setDueDay(id, dueDay);
+                }
+            }
+            return;
+        }
+        Transaction open = openTransaction(patron, book, pending);
+        if (open != null) {
+            open.dueDay = dueDay;
+        }
+    }
+
+    /**
+     * Marks the patron's open transaction for a book as returned.
+     *
+     * @return The copy recorded at checkout, or -1 if there is no open transaction or no copy
+     */
+    private int closeOpen(Patron patron, Book book, int today, List<Transaction> pending,
+                          Map<String, Transaction> openLoans) {
+        TransactionLog txLog = log;
+        if (txLog != null) {
+            synchronized (history) {
+                int id = txLog.findOpen(patron.getPatronId(), book.getIsbn());
+                if (id < 0) {
+                    return -1;
+                }
+                txLog.setReturnDay(id, today);
+                return txLog.copy(id);
+            }
+        }
+        Transaction open;
+        if (openLoans != null) {
+            open = openLoans.get(book.getIsbn()); // already looked up by the bulk caller
+        } else {
+            open = openTransaction(patron, book, pending);
+        }
+        if (open == null) {
+            return -1;
+        }
+        open.returnDay = today;
+        return open.copy;
+    }
+
+    /**
+     * The patron's open transaction for a book, looked up in the caller's unrecorded batch
+     * first and then in the history.
+     */
+    private Transaction openTransaction(Patron patron, Book book, List<Transaction> pending) {
+        Transaction open = pending == null ? null : findOpen(pending, patron, book);
+        if (open == null) {
+            synchronized (history) {
+                open = findOpen(patron, book.getIsbn());
+            }
+        }
+        return open;
+    }
+
+    private static Transaction findOpen(List<Transaction> transactions, Patron patron, Book book) {
+        for (Transaction t : transactions) {
+            if (Objects.equals(t.patronId, patron.getPatronId()) && t.book.equals(book)
+                    && t.returnDay == TransactionLog.OPEN) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Newest open transaction of a patron for one ISBN. Caller holds the history lock.
+     */
+    private Transaction findOpen(Patron patron, String isbn) {
+        int id = historyIndex.findNewest(patron.getPatronId(), i -> {
+            Transaction t = history.get(i);
+            return t.returnDay == TransactionLog.OPEN && t.book.getIsbn().equals(isbn);
+        });
+        return id < 0 ? null : history.get(id);
+    }
+
+    /**
+     * Newest open transaction per ISBN for one patron, from a single walk of the patron's index.
+     */
+    private Map<String, Transaction> findOpen(Patron patron, Collection<String> isbns) {
+        Set<String> wanted = new HashSet<>(isbns);
+        Map<String, Transaction> open = new HashMap<>();
+        synchronized (history) {
+            historyIndex.findNewest(patron.getPatronId(), i -> {
+                Transaction t = history.get(i);
+                if (t.returnDay == TransactionLog.OPEN && wanted.contains(t.book.getIsbn())) {
+                    open.putIfAbsent(t.book.getIsbn(), t);
+                }
+                return open.size() == wanted.size();
+            });
+        }
+        return open;
+    }
+
+    /**
+     * Copy on loan to a patron, from the patron's open transaction for the ISBN.
+     * Loans still in an event loop's unrecorded batch are not found.
+     *
+     * @return The copy index, or -1 if no open transaction records one
+     */
+    int loanedCopy(Patron patron, String isbn) {
+        synchronized (history) {
+            TransactionLog txLog = log;
+            if (txLog != null) {
+                int id = txLog.findOpen(patron.getPatronId(), isbn);
+                return id < 0 ? -1 : txLog.copy(id);
+            }
+            Transaction open = findOpen(patron, isbn);
+            return open == null ? -1 : open.copy;
+        }
+    }
+
+    /**
+     * Appends a batch of transactions to the history under a single lock acquisition.
+     *
+     * @param batch Transactions produced by one event-loop batch
+     */
+    void recordTransactions(List<Transaction> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        synchronized (history) {
+            for (Transaction transaction : batch) {
+                appendHistory(transaction);
+            }
+        }
+    }
+
+    /**
+     * Called by an event loop when {@link #recordTransactions} failed for a batch whose
+     * checkouts and returns had already been applied.
+     *
+     * @param count Transactions missing from the history
+     * @param failure Why the write failed
+     */
+    void historyWriteFailed(int count, RuntimeException failure) {
+        unrecordedTransactions.addAndGet(count);
+        historyFailure = failure;
+    }
+
+    /**
+     * Transactions that were applied by the async API but could not be written to the
+     * borrowing history. Their callers were told the result of the checkout or return itself,
+     * so a nonzero value means the history, not the loans, is incomplete.
+     *
+     * @return Number of transactions missing from the history
+     */
+    public long getUnrecordedTransactionCount() {
+        return unrecordedTransactions.get();
+    }
+
+    /**
+     * @return The last history write failure of the async API, or null if there was none
+     */
+    public RuntimeException getHistoryFailure() {
+        return historyFailure;
+    }
+
+    /**
+     * Adds a transaction to the history and the patron's index. Caller holds the history lock.
+     */
+    private void appendHistory(Transaction transaction) {
+        historyIndex.add(transaction.patronId, history.size());
+        history.add(transaction);
+    }
+
+    /**
+     * Starts recording which ISBNs gain or lose loans, for incremental audits.
+     *
+     * @return Live set of touched ISBNs; consumers remove the entries they have processed
+     */
+    Set<String> trackTouchedIsbns() {
+        synchronized (history) {
+            if (touchedIsbns == null) {
+                touchedIsbns = ConcurrentHashMap.newKeySet();
+            }
+            return touchedIsbns;
+        }
+    }
+
+    private void markTouched(String isbn) {
+        Set<String> touched = touchedIsbns;
+        if (touched != null) {
+            touched.add(isbn);
+        }
+    }
+
+    /**
+     * Starts indexing which patrons hold each ISBN, for audits that only look at some ISBNs.
+     * Checkout keeps the index current for loans it makes and ends, inside the book's
+     * loan-update bracket; loans that were made directly on a Patron are added by whoever
+     * scans the patrons (the auditor, on creation and when a full audit finds the index behind).
+     *
+     * @return Live map of ISBN to holder keys (see {@link #holderPatron(String)}); a key may
+     *         outlive its loan, so readers confirm it with {@link Patron#holdsLoan(String)}
+     */
+    Map<String, Set<String>> trackLoanHolders() {
+        synchronized (history) {
+            if (loanHolders == null) {
+                loanHolders = new ConcurrentHashMap<>();
+            }
+            return loanHolders;
+        }
+    }
+
+    /**
+     * Adds a holder to the loan holder index, if it is being kept.
+     */
+    void holderAdded(String isbn, String patronId) {
+        Map<String, Set<String>> holders = loanHolders;
+        if (holders != null && isbn != null) {
+            String key = patronId == null ? "" : patronId;
+            Set<String> ids = holders.get(isbn);
+            if (ids == null) {
+                ids = holders.computeIfAbsent(isbn, k -> ConcurrentHashMap.newKeySet());
+            }
+            if (!ids.contains(key)) { // patron scans re-add loans that are mostly indexed already
+                ids.add(key);
+            }
+        }
+    }
+
+    private void holderRemoved(String isbn, String patronId) {
+        Map<String, Set<String>> holders = loanHolders;
+        Set<String> ids = holders == null || isbn == null ? null : holders.get(isbn);
+        if (ids != null) {
+            ids.remove(patronId == null ? "" : patronId);
+        }
+    }
+
+    /**
+     * The registered patron for a loan holder key ("" stands for a null patron ID).
+     *
+     * @return The patron, or null if no patron is registered under the key
+     */
+    Patron holderPatron(String key) {
+        synchronized (patrons) {
+            return patrons.get(key.isEmpty() ? null : key);
+        }
+    }
+
+    /**
+     * Copies the registered patrons under the lock registerPatron takes, so the copy never
+     * races with a registration.
+     */
+    List<Patron> snapshotPatrons() {
+        synchronized (patrons) {
+            List<Patron> copy = new ArrayList<>(patrons.size());
+            for (Patron patron : patrons.values()) {
+                if (patron != null) {
+                    copy.add(patron);
+                }
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * The due-date index, rebuilt from the patrons' loans first in allocation-free mode
+     * since circulation does not maintain it there.
+     */
+    DueDateIndex dueDateIndex() {
+        if (log != null) {
+            rebuildDueDateIndex();
+        }
+        return dueIndex;
+    }
+
+    /**
+     * Rebuilds the due-date index from every registered patron's checked-out books.
+     * Needed only when loans were added to patrons directly instead of through checkoutBook.
+     */
+    public void rebuildDueDateIndex() {
+        dueIndex.clear();
+        for (Patron patron : patrons.values()) {
+            for (Map.Entry<String, LocalDate> loan : patron.getCheckedOutBooks().entrySet()) {
+                dueIndex.add(patron.getPatronId(), loan.getKey(), loan.getValue().toEpochDay());
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #checkoutBook(Book, Patron)}.
+     * The request is queued to the single-writer event loop that owns the patron's partition
+     * and completes with exactly the return code the synchronous call would produce.
+     *
+     * Async requests for a patron must not be mixed with concurrent synchronous calls for the
+     * same patron, since the event loop relies on being that patron's only writer.
+     *
+     * @param book The book to checkout (can be null)
+     * @param patron The patron checking out the book (can be null)
+     * @return Future completing with the checkout status code
+     */
+    public CompletableFuture<Double> checkoutBookAsync(Book book, Patron patron) {
+        return loopFor(patron).submitCheckout(book, patron);
+    }
+
+    /**
+     * Asynchronous variant of {@link #returnBook(String, Patron)}.
+     *
+     * @param isbn The ISBN of the book being returned
+     * @param patron The patron returning the book
+     * @return Future completing with the fine charged, or -1.0 if the return is invalid
+     */
+    public CompletableFuture<Double> returnBookAsync(String isbn, Patron patron) {
+        return loopFor(patron).submitReturn(isbn, patron);
+    }
+
+    /**
+     * Starts the async event loops with an explicit partition count.
+     * Called implicitly with one partition per CPU on first async use.
+     *
+     * @param partitions Number of single-writer loops
+     */
+    public synchronized void startAsync(int partitions) {
+        if (loops != null) {
+            return;
+        }
+        CirculationEventLoop[] started = new CirculationEventLoop[Math.max(1, partitions)];
+        for (int i = 0; i < started.length; i++) {
+            started[i] = new CirculationEventLoop(this, i);
+        }
+        loops = started;
+    }
+
+    /**
+     * Drains and stops the async event loops. Requests queued before this call still complete.
+     */
+    public synchronized void shutdownAsync() {
+        if (loops == null) {
+            return;
+        }
+        for (CirculationEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        loops = null;
+    }
+
+    private CirculationEventLoop loopFor(Patron patron) {
+        CirculationEventLoop[] current = loops;
+        if (current == null) {
+            startAsync(Runtime.getRuntime().availableProcessors());
+            current = loops;
+        }
+        int hash = patron == null || patron.getPatronId() == null ? 0 : patron.getPatronId().hashCode();
+        return current[Math.floorMod(hash, current.length)];
     }
 
     /**
@@ -336,11 +1199,66 @@ public class Checkout {
         return looped;
     }
 
+    /**
+     * Returns a read-only view of the inventory. Add books through {@link #addBook(Book)}
+     * so the ISBN filter stays in step with the map.
+     *
+     * @return ISBN to Book view
+     */
     public Map<String, Book> getInventory() {
-        return bookList;
+        return inventoryView;
     }
 
     public Map<String, Patron> getPatrons() {
         return patrons;
     }
+
+    /**
+     * Number of checkouts ever recorded for a patron (current and past loans).
+     *
+     * @param patronId Patron ID
+     * @return Transaction count
+     */
+    public int getBorrowingCount(String patronId) {
+        synchronized (history) {
+            return log != null ? log.count(patronId) : historyIndex.count(patronId);
+        }
+    }
+
+    /**
+     * One page of a patron's borrowing history, newest checkout first. Cost is proportional
+     * to the page size plus a seek that grows with the logarithm of the offset (jump pointers
+     * over the history index segments, or over the log rows in allocation-free mode), not to
+     * the library's history.
+     *
+     * @param patronId Patron ID
+     * @param offset Number of newer records to skip
+     * @param limit Maximum records to return
+     * @return The page, empty past the end of the history
+     */
+    public List<LoanRecord> getBorrowingHistory(String patronId, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        synchronized (history) {
+            TransactionLog txLog = log;
+            int[] ids = txLog != null ? txLog.page(patronId, offset, limit) : historyIndex.page(patronId, offset, limit);
+            List<LoanRecord> page = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                page.add(txLog != null ? txLog.record(id) : new LoanRecord(history.get(id)));
+            }
+            return page;
+        }
+    }
+
+    /**
+     * Estimated heap used by the per-patron history index.
+     *
+     * @return Bytes
+     */
+    long historyIndexBytes() {
+        synchronized (history) {
+            return log != null ? log.chainBytes() : historyIndex.sizeInBytesEstimate();
+        }
+    }
 }
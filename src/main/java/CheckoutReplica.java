@@ -0,0 +1,361 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-only replica of a primary Checkout, fed by a ReplicationPublisher stream.
+ *
+ * A background thread tails the stream and applies each event in order to a private
+ * Checkout instance; reporting and OPAC queries are served from it under a read lock so
+ * they never touch the primary. Lag is measured per event as the time between the primary
+ * publishing it and the replica applying it.
+ *
+ * A frame that cannot be applied (unknown patron or book, corrupt payload) stops
+ * replication like a broken stream: the applier exits and {@link #getFailure()} reports it.
+ */
+public class CheckoutReplica implements Closeable {
+    private final DataInputStream in;
+    private final Checkout state;
+    private final ReentrantReadWriteLock lock;
+    private final Condition applied;
+    private final Thread applier;
+
+    // Guarded by the write lock
+    private long appliedSequence;
+    private long lastLagNanos;
+    private long maxLagNanos;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * Starts replicating from the given stream.
+     *
+     * @param in Stream connected to the primary's ReplicationPublisher
+     */
+    public CheckoutReplica(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.state = new Checkout();
+        this.lock = new ReentrantReadWriteLock();
+        this.applied = lock.writeLock().newCondition();
+        this.applier = new Thread(this::run, "checkout-replica");
+        this.applier.setDaemon(true);
+        this.applier.start();
+    }
+
+    // ---------------------------------------------------------------- read-only queries
+
+    /**
+     * Same as {@link Checkout#countBooksByType(Book.BookType, boolean)} on the replicated state.
+     *
+     * @param type The book type to count
+     * @param onlyAvailable If true, counts only books with available copies
+     * @return Number of matching books
+     */
+    public int countBooksByType(Book.BookType type, boolean onlyAvailable) {
+        lock.readLock().lock();
+        try {
+            return state.countBooksByType(type, onlyAvailable);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the replicated number of available copies.
+     *
+     * @param isbn Book ISBN
+     * @return Available copies, or -1 if the book is unknown to the replica
+     */
+    public int getAvailableCopies(String isbn) {
+        lock.readLock().lock();
+        try {
+            Book book = state.getInventory().get(isbn);
+            return book == null ? -1 : book.getAvailableCopies();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isAvailable(String isbn) {
+        return getAvailableCopies(isbn) > 0;
+    }
+
+    /**
+     * Returns the state of one copy as replicated.
+     *
+     * @param isbn Book ISBN
+     * @param copy Copy index
+     * @return The copy state, or null if the book is unknown to the replica
+     */
+    public Book.CopyState getCopyState(String isbn, int copy) {
+        lock.readLock().lock();
+        try {
+            Book book = state.getInventory().get(isbn);
+            return book == null ? null : book.getCopyState(copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a snapshot of a patron's current loans.
+     *
+     * @param patronId Patron ID
+     * @return ISBN to due date, empty if the patron is unknown
+     */
+    public Map<String, LocalDate> getLoans(String patronId) {
+        lock.readLock().lock();
+        try {
+            Patron patron = state.getPatrons().get(patronId);
+            return patron == null ? Collections.emptyMap()
+                    : Collections.unmodifiableMap(new HashMap<>(patron.getCheckedOutBooks()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the replicated fine balance.
+     *
+     * @param patronId Patron ID
+     * @return Fine balance, 0.0 if the patron is unknown
+     */
+    public double getFineBalance(String patronId) {
+        lock.readLock().lock();
+        try {
+            Patron patron = state.getPatrons().get(patronId);
+            return patron == null ? 0.0 : patron.getFineBalance();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- replication progress
+
+    public long getAppliedSequence() {
+        lock.readLock().lock();
+        try {
+            return appliedSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Publish-to-apply delay of the most recently applied event.
+     *
+     * @return Lag in nanoseconds
+     */
+    public long getLastLagNanos() {
+        lock.readLock().lock();
+        try {
+            return lastLagNanos;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getMaxLagNanos() {
+        lock.readLock().lock();
+        try {
+            return maxLagNanos;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until the replica has applied at least the given sequence.
+     *
+     * @param sequence Sequence number from ReplicationPublisher.getSequence()
+     * @param timeout Maximum wait
+     * @param unit Unit of the timeout
+     * @return true if caught up, false on timeout or if replication stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitSequence(long sequence, long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.writeLock().lock();
+        try {
+            while (appliedSequence < sequence) {
+                if (remaining <= 0 || failure != null || !applier.isAlive()) {
+                    return false;
+                }
+                remaining = applied.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the error that stopped replication, if any.
+     *
+     * @return The stream failure, or null if replication is running or ended cleanly
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        in.close();
+    }
+
+    // ---------------------------------------------------------------- applier
+
+    private void run() {
+        try {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return; // primary closed the stream
+                }
+                long sequence = in.readLong();
+                long publishedAt = in.readLong();
+                lock.writeLock().lock();
+                try {
+                    try {
+                        apply(type);
+                    } catch (RuntimeException e) {
+                        throw new IOException("cannot apply replication frame " + sequence, e);
+                    }
+                    appliedSequence = sequence;
+                    lastLagNanos = Math.max(0, ReplicationPublisher.epochNanos() - publishedAt);
+                    maxLagNanos = Math.max(maxLagNanos, lastLagNanos);
+                    applied.signalAll();
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                applied.signalAll();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void apply(byte type) throws IOException {
+        switch (type) {
+            case ReplicationPublisher.BOOK_ADDED: {
+                String isbn = in.readUTF();
+                String title = in.readUTF();
+                String author = in.readUTF();
+                byte typeCode = in.readByte();
+                Book.BookType bookType = typeCode < 0 ? null : Book.BookType.values()[typeCode];
+                Book book = new Book(isbn, title, author, bookType, in.readInt());
+                book.setAvailableCopies(in.readInt());
+                state.addBook(book);
+                break;
+            }
+            case ReplicationPublisher.PATRON_REGISTERED: {
+                String id = in.readUTF();
+                String name = in.readUTF();
+                String email = in.readUTF();
+                byte typeCode = in.readByte();
+                Patron patron = new Patron(id, name, email, typeCode < 0 ? null : Patron.PatronType.values()[typeCode]);
+                patron.setAccountSuspended(in.readBoolean());
+                patron.addFine(in.readDouble());
+                patron.setOverdueCount(in.readInt());
+                int loans = in.readInt();
+                for (int i = 0; i < loans; i++) {
+                    patron.addCheckedOutBook(in.readUTF(), LocalDate.ofEpochDay(in.readLong()));
+                }
+                state.registerPatron(patron);
+                break;
+            }
+            case ReplicationPublisher.CHECKOUT: {
+                Patron patron = patron(in.readUTF());
+                Book book = book(in.readUTF());
+                int copy = in.readInt();
+                LocalDate dueDate = LocalDate.ofEpochDay(in.readLong());
+                if (!book.checkoutCopy(copy)) {
+                    throw new IOException("copy " + copy + " of " + book.getIsbn() + " is "
+                            + book.getCopyState(copy) + " on the replica, checked out on the primary");
+                }
+                patron.addCheckedOutBook(book.getIsbn(), dueDate);
+                break;
+            }
+            case ReplicationPublisher.RENEW: {
+                Patron patron = patron(in.readUTF());
+                String isbn = in.readUTF();
+                if (!patron.hasBookCheckedOut(isbn)) {
+                    throw new IOException("renewal of " + isbn + " not on loan to " + patron.getPatronId());
+                }
+                patron.addCheckedOutBook(isbn, LocalDate.ofEpochDay(in.readLong()));
+                break;
+            }
+            case ReplicationPublisher.FINE: {
+                Patron patron = patron(in.readUTF());
+                patron.addFine(in.readDouble());
+                break;
+            }
+            case ReplicationPublisher.RETURN: {
+                Patron patron = patron(in.readUTF());
+                Book book = book(in.readUTF());
+                int copy = in.readInt();
+                if (copy >= 0 && !book.returnCopy(copy)) {
+                    throw new IOException("copy " + copy + " of " + book.getIsbn() + " is "
+                            + book.getCopyState(copy) + " on the replica, returned on the primary");
+                }
+                if (copy < 0) {
+                    book.returnBook(); // the primary could not match the return to a copy either
+                }
+                patron.removeCheckedOutBook(book.getIsbn());
+                break;
+            }
+            case ReplicationPublisher.COPY_STATES: {
+                Book book = book(in.readUTF());
+                int copies = in.readInt();
+                if (copies != book.getTotalCopies()) {
+                    throw new IOException(book.getIsbn() + " has " + book.getTotalCopies()
+                            + " copies on the replica, " + copies + " on the primary");
+                }
+                Book.CopyState[] states = Book.CopyState.values();
+                for (int copy = 0; copy < copies; copy++) {
+                    book.setCopyState(copy, states[in.readByte()]);
+                }
+                break;
+            }
+            default:
+                throw new IOException("unknown replication frame type " + type);
+        }
+    }
+
+    private Patron patron(String patronId) throws IOException {
+        Patron patron = state.getPatrons().get(patronId);
+        if (patron == null) {
+            throw new IOException("unknown patron " + patronId);
+        }
+        return patron;
+    }
+
+    private Book book(String isbn) throws IOException {
+        Book book = state.getInventory().get(isbn);
+        if (book == null) {
+            throw new IOException("unknown book " + isbn);
+        }
+        return book;
+    }
+}
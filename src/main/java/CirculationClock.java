@@ -0,0 +1,55 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Today's date as an epoch day in the system time zone, cached until the next local midnight.
+ *
+ * LocalDate.now() builds a clock reading, an Instant and a LocalDate on every call; a
+ * checkout or return only needs the day number. The cached value is refreshed (with a
+ * single allocation-heavy LocalDate.now()) when the wall clock passes midnight or jumps
+ * backwards, so every other call is a volatile read and a currentTimeMillis comparison.
+ */
+final class CirculationClock {
+
+    /**
+     * One day's validity window; replaced as a whole so readers never mix two days.
+     */
+    private static final class Day {
+        final int epochDay;
+        final long startMillis;
+        final long endMillis;
+
+        Day(int epochDay, long startMillis, long endMillis) {
+            this.epochDay = epochDay;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+
+    private static volatile Day current = load();
+
+    private CirculationClock() {
+    }
+
+    /**
+     * @return Today's epoch day, equal to (int) LocalDate.now().toEpochDay()
+     */
+    static int today() {
+        long now = System.currentTimeMillis();
+        Day day = current;
+        if (now >= day.endMillis || now < day.startMillis) {
+            day = load();
+            current = day;
+        }
+        return day.epochDay;
+    }
+
+    private static Day load() {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate today = LocalDate.now(zone);
+        Instant start = today.atStartOfDay(zone).toInstant();
+        Instant end = today.plusDays(1).atStartOfDay(zone).toInstant();
+        return new Day((int) today.toEpochDay(), start.toEpochMilli(), end.toEpochMilli());
+    }
+}
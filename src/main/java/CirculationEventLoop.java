@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-writer event loop for one partition of the patron space.
+ *
+ * Producers (kiosk threads) only enqueue a request and get a future back.
+ * The loop thread is the only thread that mutates the patrons of its partition, so it
+ * processes requests without locks, drains them in batches, and appends the whole
+ * batch of transactions to the checkout history in one step.
+ *
+ * Futures are completed on the loop thread once the batch has been recorded; callers that
+ * chain heavy work should use the *Async stages of CompletableFuture. A future always reports
+ * what happened to its own request: if only the history write fails, the checkouts and returns
+ * still stand, so their futures complete normally and the failure is reported through
+ * {@link Checkout#getUnrecordedTransactionCount()} and {@link Checkout#getHistoryFailure()}.
+ */
+final class CirculationEventLoop {
+    static final int MAX_BATCH = 256;
+
+    private enum Kind {
+        CHECKOUT,
+        RETURN
+    }
+
+    /**
+     * One queued circulation request.
+     */
+    private static final class Request {
+        final Kind kind;
+        final Book book;
+        final String isbn;
+        final Patron patron;
+        final CompletableFuture<Double> result;
+
+        Request(Kind kind, Book book, String isbn, Patron patron) {
+            this.kind = kind;
+            this.book = book;
+            this.isbn = isbn;
+            this.patron = patron;
+            this.result = new CompletableFuture<>();
+        }
+    }
+
+    private final Checkout checkout;
+    private final ConcurrentLinkedQueue<Request> queue;
+    private final AtomicBoolean sleeping;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // Loop-thread-only state
+    private final Request[] batch;
+    private final double[] results;
+    private final List<Checkout.Transaction> pending;
+
+    CirculationEventLoop(Checkout checkout, int partition) {
+        this.checkout = checkout;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.sleeping = new AtomicBoolean(false);
+        this.batch = new Request[MAX_BATCH];
+        this.results = new double[MAX_BATCH];
+        this.pending = new ArrayList<>(MAX_BATCH);
+        this.running = true;
+        this.thread = new Thread(this::run, "circulation-loop-" + partition);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    CompletableFuture<Double> submitCheckout(Book book, Patron patron) {
+        return submit(new Request(Kind.CHECKOUT, book, null, patron));
+    }
+
+    CompletableFuture<Double> submitReturn(String isbn, Patron patron) {
+        return submit(new Request(Kind.RETURN, null, isbn, patron));
+    }
+
+    /**
+     * Stops the loop after it has drained every request already queued.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Double> submit(Request request) {
+        if (!running) {
+            request.result.completeExceptionally(new IllegalStateException("event loop is shut down"));
+            return request.result;
+        }
+        queue.offer(request);
+        if (!running && queue.remove(request)) {
+            // Shutdown began after the check above and the loop may already have drained
+            // for the last time; whoever takes the request off the queue answers it
+            request.result.completeExceptionally(new IllegalStateException("event loop is shut down"));
+            return request.result;
+        }
+        // Only pay for an unpark when the loop actually went to sleep
+        if (sleeping.get() && sleeping.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+        }
+        return request.result;
+    }
+
+    private void run() {
+        while (running || !queue.isEmpty()) {
+            int n = drain();
+            if (n == 0) {
+                sleeping.set(true);
+                // Re-check after publishing the flag so a concurrent offer is never missed
+                if (queue.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                sleeping.set(false);
+                continue;
+            }
+            process(n);
+        }
+        // Anything that raced with shutdown is rejected rather than left hanging
+        Request late;
+        while ((late = queue.poll()) != null) {
+            late.result.completeExceptionally(new IllegalStateException("event loop is shut down"));
+        }
+    }
+
+    private int drain() {
+        int n = 0;
+        Request r;
+        while (n < MAX_BATCH && (r = queue.poll()) != null) {
+            batch[n++] = r;
+        }
+        return n;
+    }
+
+    private void process(int n) {
+        // Eligibility only changes on returns (fines), so consecutive checkouts by the
+        // same patron - a kiosk basket - reuse a single validation
+        Patron validated = null;
+        double eligibility = 0.0;
+
+        for (int i = 0; i < n; i++) {
+            Request r = batch[i];
+            try {
+                if (r.kind == Kind.CHECKOUT) {
+                    if (r.patron == null || r.patron != validated) {
+                        validated = r.patron;
+                        eligibility = checkout.validatePatronEligibility(r.patron);
+                    }
+                    results[i] = checkout.checkoutBook(r.book, r.patron, eligibility, pending);
+                } else {
+                    validated = null;
+                    results[i] = checkout.returnBook(r.isbn, r.patron, pending);
+                }
+            } catch (RuntimeException e) {
+                results[i] = Double.NaN;
+                r.result.completeExceptionally(e);
+            }
+        }
+
+        try {
+            checkout.recordTransactions(pending);
+        } catch (RuntimeException e) {
+            // The loans themselves were applied, so failing the futures would make callers
+            // retry a checkout that already happened; report the lost history instead
+            checkout.historyWriteFailed(pending.size(), e);
+        } finally {
+            pending.clear();
+        }
+
+        for (int i = 0; i < n; i++) {
+            Request r = batch[i];
+            batch[i] = null;
+            if (!r.result.isDone()) {
+                r.result.complete(results[i]);
+            }
+        }
+    }
+}
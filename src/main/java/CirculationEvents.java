@@ -0,0 +1,125 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the circulation hot paths.
+ *
+ * Emission is gated by a single volatile flag so the disabled cost is one field read per
+ * operation. Turn it on with {@code -Dcirculation.jfr=true} or {@link #setEnabled(boolean)};
+ * which events are actually recorded, and with what threshold, is then controlled by the
+ * recording settings (see config/jfr/circulation.jfc).
+ *
+ * Every event carries the patron type, book type and the operation's return code
+ * (the fine amount for returns); JFR records the duration.
+ */
+public final class CirculationEvents {
+    private static volatile boolean enabled = Boolean.getBoolean("circulation.jfr");
+
+    private CirculationEvents() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns circulation event emission on or off at runtime.
+     *
+     * @param on true to emit events to running recordings
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Fields shared by every circulation event.
+     */
+    @Category({"Library", "Circulation"})
+    @StackTrace(false)
+    abstract static class CirculationEvent extends Event {
+        @Label("Patron Type")
+        String patronType;
+
+        @Label("Book Type")
+        String bookType;
+
+        @Label("Return Code")
+        double code;
+    }
+
+    @Name("library.Checkout")
+    @Label("Checkout")
+    @Description("Non-renewal checkout attempt by an eligible patron")
+    static final class CheckoutEvent extends CirculationEvent {
+    }
+
+    @Name("library.Renewal")
+    @Label("Renewal")
+    @Description("Checkout of a book the patron already holds")
+    static final class RenewalEvent extends CirculationEvent {
+    }
+
+    @Name("library.EligibilityRejected")
+    @Label("Eligibility Rejected")
+    @Description("Checkout refused by validatePatronEligibility")
+    static final class EligibilityRejectedEvent extends CirculationEvent {
+    }
+
+    @Name("library.Return")
+    @Label("Return")
+    @Description("Book return; the code is the fine charged or -1.0 for an invalid return")
+    static final class ReturnEvent extends CirculationEvent {
+    }
+
+    @Name("library.FineAssessed")
+    @Label("Fine Assessed")
+    @Description("Overdue fine charged on return; the code is the fine amount")
+    static final class FineAssessedEvent extends CirculationEvent {
+        @Label("Days Overdue")
+        int daysOverdue;
+    }
+
+    /**
+     * Starts the event matching the outcome class of a checkout call.
+     */
+    static CirculationEvent beginCheckout(Book book, Patron patron, double eligibility) {
+        CirculationEvent event;
+        if (eligibility != 0.0) {
+            event = new EligibilityRejectedEvent();
+        } else if (book != null && patron.hasBookCheckedOut(book.getIsbn())) {
+            event = new RenewalEvent();
+        } else {
+            event = new CheckoutEvent();
+        }
+        event.begin();
+        return event;
+    }
+
+    static CirculationEvent beginReturn() {
+        CirculationEvent event = new ReturnEvent();
+        event.begin();
+        return event;
+    }
+
+    static void end(CirculationEvent event, Patron patron, Book.BookType bookType, double code) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.patronType = patron == null || patron.getType() == null ? null : patron.getType().name();
+            event.bookType = bookType == null ? null : bookType.name();
+            event.code = code;
+            event.commit();
+        }
+    }
+
+    static void fineAssessed(Patron patron, Book.BookType bookType, int daysOverdue, double fine) {
+        FineAssessedEvent event = new FineAssessedEvent();
+        if (event.shouldCommit()) {
+            event.daysOverdue = daysOverdue;
+            end(event, patron, bookType, fine);
+        }
+    }
+}
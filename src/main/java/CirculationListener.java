@@ -0,0 +1,40 @@
+import java.time.LocalDate;
+
+/**
+ * Receives every state change Checkout makes to books and patrons, in the order they happen.
+ * Used to ship the primary's changes to read replicas.
+ *
+ * Callbacks run on the thread performing the operation (including async event-loop threads),
+ * so implementations must be thread-safe and fast.
+ */
+public interface CirculationListener {
+
+    void bookAdded(Book book);
+
+    void patronRegistered(Patron patron);
+
+    void checkedOut(Patron patron, Book book, int copy, LocalDate dueDate);
+
+    void renewed(Patron patron, Book book, LocalDate dueDate);
+
+    void fineAssessed(Patron patron, Book book, double amount);
+
+    /**
+     * Called before the copy is put back on the shelf, so a later checkout of the
+     * same copy is always observed after this return.
+     *
+     * @param patron The returning patron
+     * @param book The returned book
+     * @param copy The copy being returned, or -1 if the loan could not be matched to a copy
+     */
+    void returned(Patron patron, Book book, int copy);
+
+    /**
+     * Called after copies of a book changed state outside checkout and return (lost,
+     * sent to repair, restored, setAvailableCopies, auditor repairs), as reported through
+     * {@link Checkout#copiesChanged(Book)}.
+     *
+     * @param book The book whose copies changed
+     */
+    void copiesChanged(Book book);
+}
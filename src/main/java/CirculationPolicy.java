@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable circulation policy: loan limits and periods per patron type, fine tiers,
+ * per-book-type fine multipliers and the fine cap, stored in arrays indexed by enum ordinal.
+ * A patron without a type gets the original fallback of 5 books for 21 days.
+ *
+ * One policy is current at a time. It is replaced as a whole with {@link #install} (or
+ * {@link #reload} from a file), so readers never see half of an update; an operation that
+ * reads {@link #current()} once applies a single consistent version throughout.
+ *
+ * Config file format (java.util.Properties, every key optional; missing keys keep the defaults,
+ * unknown or misspelled keys make the whole file invalid):
+ * <pre>
+ *   limit.FACULTY=20          max books on loan, per PatronType
+ *   loanDays.FACULTY=60       loan period in days, per PatronType
+ *   fine.tierDays=7,7         length of each tier but the last, which is unbounded
+ *   fine.rates=0.25,0.50,1.00 dollars per day in each tier (one more than tierDays)
+ *   fine.multiplier.TEXTBOOK=2.0
+ *   fine.cap=25.0             per-book maximum; defaults to Checkout.MAX_FINE_AMOUNT
+ * </pre>
+ */
+public final class CirculationPolicy {
+    private static final AtomicReference<CirculationPolicy> CURRENT = new AtomicReference<>(defaults());
+
+    // What the original rules gave a patron with no type
+    private static final int UNTYPED_MAX_CHECKOUTS = 5;
+    private static final int UNTYPED_LOAN_DAYS = 21;
+
+    private final long version;
+    private final int[] maxCheckouts;
+    private final int[] loanDays;
+    private final int[] tierDays;
+    private final double[] tierRates;
+    private final double[] fineMultipliers;
+    private final double fineCap; // NaN: use Checkout.MAX_FINE_AMOUNT
+
+    private CirculationPolicy(long version, int[] maxCheckouts, int[] loanDays, int[] tierDays,
+                              double[] tierRates, double[] fineMultipliers, double fineCap) {
+        this.version = version;
+        this.maxCheckouts = maxCheckouts;
+        this.loanDays = loanDays;
+        this.tierDays = tierDays;
+        this.tierRates = tierRates;
+        this.fineMultipliers = fineMultipliers;
+        this.fineCap = fineCap;
+    }
+
+    /**
+     * The built-in policy (version 0), identical to the library's original rules.
+     *
+     * @return Default policy
+     */
+    public static CirculationPolicy defaults() {
+        int[] limits = new int[Patron.PatronType.values().length];
+        int[] days = new int[limits.length];
+        set(limits, days, Patron.PatronType.FACULTY, 20, 60);
+        set(limits, days, Patron.PatronType.STAFF, 15, 45);
+        set(limits, days, Patron.PatronType.STUDENT, 10, 30);
+        set(limits, days, Patron.PatronType.PUBLIC, 5, 21);
+        set(limits, days, Patron.PatronType.CHILD, 3, 14);
+        double[] multipliers = new double[Book.BookType.values().length];
+        Arrays.fill(multipliers, 1.0);
+        multipliers[Book.BookType.REFERENCE.ordinal()] = 2.0;
+        multipliers[Book.BookType.TEXTBOOK.ordinal()] = 2.0;
+        return new CirculationPolicy(0, limits, days, new int[] {7, 7}, new double[] {0.25, 0.50, 1.00},
+                multipliers, Double.NaN);
+    }
+
+    private static void set(int[] limits, int[] days, Patron.PatronType type, int limit, int loanDays) {
+        limits[type.ordinal()] = limit;
+        days[type.ordinal()] = loanDays;
+    }
+
+    public static CirculationPolicy current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes a policy current. Operations already running finish under the policy they started with.
+     *
+     * @param policy The new policy
+     */
+    public static void install(CirculationPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy must not be null");
+        }
+        CURRENT.set(policy);
+    }
+
+    /**
+     * Loads a config file over the defaults and installs it as the next version.
+     * If the file is invalid nothing changes.
+     *
+     * @param file Properties file (see class comment)
+     * @return The installed policy
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a key is unknown or a value is malformed
+     */
+    public static CirculationPolicy reload(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        while (true) {
+            CirculationPolicy previous = CURRENT.get();
+            CirculationPolicy next = fromProperties(properties, previous.version + 1);
+            if (CURRENT.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Builds a policy from properties over the defaults.
+     *
+     * @param properties Policy settings
+     * @param version Version number to assign
+     * @return The policy
+     * @throws IllegalArgumentException if a key is unknown or a value is malformed
+     */
+    public static CirculationPolicy fromProperties(Properties properties, long version) {
+        rejectUnknownKeys(properties);
+        CirculationPolicy base = defaults();
+        int[] limits = base.maxCheckouts.clone();
+        int[] days = base.loanDays.clone();
+        for (Patron.PatronType type : Patron.PatronType.values()) {
+            limits[type.ordinal()] = intValue(properties, "limit." + type, limits[type.ordinal()]);
+            days[type.ordinal()] = intValue(properties, "loanDays." + type, days[type.ordinal()]);
+        }
+        double[] multipliers = base.fineMultipliers.clone();
+        for (Book.BookType type : Book.BookType.values()) {
+            multipliers[type.ordinal()] = doubleValue(properties, "fine.multiplier." + type,
+                    multipliers[type.ordinal()]);
+        }
+        int[] tierDays = base.tierDays;
+        String tiers = properties.getProperty("fine.tierDays");
+        if (tiers != null) {
+            tierDays = Arrays.stream(split(tiers)).mapToInt(s -> parseInt("fine.tierDays", s)).toArray();
+        }
+        double[] rates = base.tierRates;
+        String rateList = properties.getProperty("fine.rates");
+        if (rateList != null) {
+            rates = Arrays.stream(split(rateList)).mapToDouble(s -> parseDouble("fine.rates", s)).toArray();
+        }
+        if (rates.length != tierDays.length + 1) {
+            throw new IllegalArgumentException("fine.rates needs one more entry than fine.tierDays");
+        }
+        double cap = doubleValue(properties, "fine.cap", base.fineCap);
+        return new CirculationPolicy(version, limits, days, tierDays, rates, multipliers, cap);
+    }
+
+    /**
+     * A misspelled key would otherwise be ignored silently and leave its default in force.
+     */
+    private static void rejectUnknownKeys(Properties properties) {
+        Set<String> known = new HashSet<>(Arrays.asList("fine.tierDays", "fine.rates", "fine.cap"));
+        for (Patron.PatronType type : Patron.PatronType.values()) {
+            known.add("limit." + type);
+            known.add("loanDays." + type);
+        }
+        for (Book.BookType type : Book.BookType.values()) {
+            known.add("fine.multiplier." + type);
+        }
+        Set<String> unknown = new TreeSet<>(properties.stringPropertyNames());
+        unknown.removeAll(known);
+        if (!unknown.isEmpty()) {
+            throw new IllegalArgumentException("unknown policy keys: " + unknown);
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param type Patron type (null gets the untyped fallback)
+     * @return Maximum books on loan
+     */
+    public int getMaxCheckoutLimit(Patron.PatronType type) {
+        return type == null ? UNTYPED_MAX_CHECKOUTS : maxCheckouts[type.ordinal()];
+    }
+
+    /**
+     * @param type Patron type (null gets the untyped fallback)
+     * @return Loan period in days
+     */
+    public int getLoanPeriodDays(Patron.PatronType type) {
+        return type == null ? UNTYPED_LOAN_DAYS : loanDays[type.ordinal()];
+    }
+
+    /**
+     * Fine for one overdue book under this policy.
+     *
+     * @param daysOverdue Days past the due date
+     * @param bookType Type of the book (null uses a multiplier of 1)
+     * @return Fine in dollars, capped
+     */
+    public double calculateFine(int daysOverdue, Book.BookType bookType) {
+        if (daysOverdue <= 0) {
+            return 0.0;
+        }
+        double fine = 0.0;
+        int remaining = daysOverdue;
+        for (int tier = 0; tier < tierDays.length && remaining > 0; tier++) {
+            int days = Math.min(remaining, tierDays[tier]);
+            fine += days * tierRates[tier];
+            remaining -= days;
+        }
+        fine += remaining * tierRates[tierDays.length];
+        if (bookType != null) {
+            fine *= fineMultipliers[bookType.ordinal()];
+        }
+        return Math.min(fine, Double.isNaN(fineCap) ? Checkout.MAX_FINE_AMOUNT : fineCap);
+    }
+
+    private static int intValue(Properties properties, String key, int fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : parseInt(key, value.trim());
+    }
+
+    private static double doubleValue(Properties properties, String key, double fallback) {
+        String value = properties.getProperty(key);
+        return value == null ? fallback : parseDouble(key, value.trim());
+    }
+
+    private static int parseInt(String key, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < 0) {
+                throw new IllegalArgumentException(key + " must not be negative: " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + key + ": " + value, e);
+        }
+    }
+
+    private static double parseDouble(String key, String value) {
+        try {
+            double parsed = Double.parseDouble(value);
+            if (!(parsed >= 0)) {
+                throw new IllegalArgumentException(key + " must not be negative: " + value);
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + key + ": " + value, e);
+        }
+    }
+
+    private static String[] split(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).toArray(String[]::new);
+    }
+}
@@ -0,0 +1,259 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Compact per-copy state table for a single title.
+ * Every physical copy owns a 2-bit field, so one long word holds the state of 32 copies.
+ *
+ * Encoding (chosen so a freshly allocated word means "all available"):
+ *   00 - AVAILABLE
+ *   01 - OUT
+ *   10 - LOST
+ *   11 - IN_REPAIR
+ *
+ * All transitions are single-word compare-and-set operations, so concurrent checkouts
+ * and returns of the same title never lose an update and never hand out the same copy twice.
+ * Counts are popcounts of the words themselves, so they always agree with the copy states.
+ *
+ * A summary bitmap keeps one bit per word that may still hold an AVAILABLE copy, so the lowest
+ * free copy is two trailing-zero counts (summary, then word) for up to 2,048 copies per summary
+ * long instead of a scan of every word. A bit is set after a copy in its word becomes AVAILABLE
+ * and cleared only after its word is seen with no AVAILABLE copy, so a copy can be allocated
+ * as soon as the transition that freed it has returned.
+ */
+final class CopyBitset {
+    private static final int BITS_PER_COPY = 2;
+    private static final int COPIES_PER_WORD = Long.SIZE / BITS_PER_COPY;
+    private static final long FIELD_MASK = 0b11L;
+    /** Low bit of every 2-bit field. */
+    private static final long LOW_BITS = 0x5555_5555_5555_5555L;
+
+    private static final Book.CopyState[] STATES = Book.CopyState.values();
+
+    private final int size;
+    private final AtomicLongArray words;
+    private final AtomicLongArray freeWords; // bit w set if word w may hold an AVAILABLE copy
+
+    /**
+     * Creates a table where every copy starts in the given state.
+     *
+     * @param size Number of physical copies (negative values are treated as 0)
+     * @param initial Initial state of every copy
+     */
+    CopyBitset(int size, Book.CopyState initial) {
+        this.size = Math.max(0, size);
+        this.words = new AtomicLongArray((this.size + COPIES_PER_WORD - 1) / COPIES_PER_WORD);
+        this.freeWords = new AtomicLongArray((words.length() + Long.SIZE - 1) / Long.SIZE);
+        fill(this.size, initial);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int availableCount() {
+        return count(Book.CopyState.AVAILABLE);
+    }
+
+    /**
+     * Counts copies in a given state by popcounting the words, 32 copies per word.
+     *
+     * @param state The state to count
+     * @return Number of copies currently in that state
+     */
+    int count(Book.CopyState state) {
+        int total = 0;
+        for (int w = 0; w < words.length(); w++) {
+            total += Long.bitCount(matching(words.get(w), state.ordinal()) & validMask(w));
+        }
+        return total;
+    }
+
+    Book.CopyState get(int copy) {
+        checkIndex(copy);
+        long word = words.get(copy / COPIES_PER_WORD);
+        return STATES[(int) ((word >>> shift(copy)) & FIELD_MASK)];
+    }
+
+    /**
+     * Claims the lowest-numbered AVAILABLE copy and marks it OUT.
+     *
+     * @return The claimed copy index, or -1 if no copy is available
+     */
+    int allocate() {
+        long outBits = Book.CopyState.OUT.ordinal();
+        for (int s = 0; s < freeWords.length(); s++) {
+            long summary;
+            while ((summary = freeWords.get(s)) != 0) {
+                int w = s * Long.SIZE + Long.numberOfTrailingZeros(summary);
+                long word = words.get(w);
+                long candidates = matching(word, Book.CopyState.AVAILABLE.ordinal()) & validMask(w);
+                if (candidates == 0) {
+                    // Clear the hint, then re-check in case a copy was freed in between
+                    clearFree(w);
+                    if ((matching(words.get(w), Book.CopyState.AVAILABLE.ordinal()) & validMask(w)) != 0) {
+                        markFree(w);
+                    }
+                    continue;
+                }
+                int shift = Long.numberOfTrailingZeros(candidates);
+                long updated = (word & ~(FIELD_MASK << shift)) | (outBits << shift);
+                if (words.compareAndSet(w, word, updated)) {
+                    return w * COPIES_PER_WORD + shift / BITS_PER_COPY;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the lowest-numbered OUT copy to the shelf.
+     * Used when a return cannot be matched to a specific copy; unlike allocation it scans the
+     * words, since no summary of OUT copies is kept.
+     *
+     * @return The released copy index, or -1 if no copy is out
+     */
+    int releaseAny() {
+        return claimLowest(Book.CopyState.OUT, Book.CopyState.AVAILABLE);
+    }
+
+    /**
+     * Atomically moves one copy from an expected state to a new state.
+     *
+     * @param copy Copy index
+     * @param expected State the copy must currently be in
+     * @param next State to move the copy to
+     * @return true if the copy was in the expected state and has been moved
+     */
+    boolean transition(int copy, Book.CopyState expected, Book.CopyState next) {
+        checkIndex(copy);
+        int w = copy / COPIES_PER_WORD;
+        int shift = shift(copy);
+        long expectedBits = (long) expected.ordinal() << shift;
+        long nextBits = (long) next.ordinal() << shift;
+        while (true) {
+            long word = words.get(w);
+            if ((word & (FIELD_MASK << shift)) != expectedBits) {
+                return false;
+            }
+            long updated = (word & ~(FIELD_MASK << shift)) | nextBits;
+            if (words.compareAndSet(w, word, updated)) {
+                if (next == Book.CopyState.AVAILABLE) {
+                    markFree(w);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Resets the table so the first {@code available} copies are AVAILABLE and the rest are OUT.
+     * This is an administrative bulk operation and is not atomic with respect to concurrent checkouts.
+     *
+     * @param available Number of copies to make available (clamped to [0, size])
+     */
+    void resetAvailable(int available) {
+        int n = Math.max(0, Math.min(available, size));
+        fill(size, Book.CopyState.OUT);
+        for (int w = 0; w < words.length(); w++) {
+            int first = w * COPIES_PER_WORD;
+            int inWord = Math.min(COPIES_PER_WORD, n - first);
+            if (inWord <= 0) {
+                break;
+            }
+            // Clearing a field turns it from OUT (01) into AVAILABLE (00)
+            long clear = inWord == COPIES_PER_WORD ? -1L : (1L << (inWord * BITS_PER_COPY)) - 1;
+            words.set(w, words.get(w) & ~clear);
+            markFree(w);
+        }
+    }
+
+    private int claimLowest(Book.CopyState from, Book.CopyState to) {
+        long toBits = to.ordinal();
+        for (int w = 0; w < words.length(); w++) {
+            while (true) {
+                long word = words.get(w);
+                long candidates = matching(word, from.ordinal()) & validMask(w);
+                if (candidates == 0) {
+                    break;
+                }
+                int shift = Long.numberOfTrailingZeros(candidates);
+                long updated = (word & ~(FIELD_MASK << shift)) | (toBits << shift);
+                if (words.compareAndSet(w, word, updated)) {
+                    if (to == Book.CopyState.AVAILABLE) {
+                        markFree(w);
+                    }
+                    return w * COPIES_PER_WORD + shift / BITS_PER_COPY;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private void fill(int count, Book.CopyState state) {
+        long pattern = LOW_BITS * state.ordinal();
+        for (int w = 0; w < words.length(); w++) {
+            // Padding fields past the last copy are kept OUT so they are never allocated
+            long valid = validMask(w);
+            long padding = LOW_BITS * Book.CopyState.OUT.ordinal();
+            words.set(w, (pattern & valid) | (padding & ~valid));
+        }
+        long free = state == Book.CopyState.AVAILABLE && count > 0 ? -1L : 0L;
+        for (int s = 0; s < freeWords.length(); s++) {
+            freeWords.set(s, free);
+        }
+        // Bits past the last word are never set, so allocation never looks beyond the table
+        int lastBits = words.length() % Long.SIZE;
+        if (free != 0 && lastBits != 0) {
+            freeWords.set(freeWords.length() - 1, (1L << lastBits) - 1);
+        }
+    }
+
+    private void markFree(int w) {
+        int s = w / Long.SIZE;
+        long bit = 1L << w;
+        long summary;
+        while (((summary = freeWords.get(s)) & bit) == 0) {
+            if (freeWords.compareAndSet(s, summary, summary | bit)) {
+                return;
+            }
+        }
+    }
+
+    private void clearFree(int w) {
+        int s = w / Long.SIZE;
+        long bit = 1L << w;
+        long summary;
+        while (((summary = freeWords.get(s)) & bit) != 0) {
+            if (freeWords.compareAndSet(s, summary, summary & ~bit)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns a word with the low bit of each field set where the field equals {@code code}.
+     */
+    private static long matching(long word, int code) {
+        long hi = (code & 2) != 0 ? word >>> 1 : ~word >>> 1;
+        long lo = (code & 1) != 0 ? word : ~word;
+        return hi & lo & LOW_BITS;
+    }
+
+    private long validMask(int w) {
+        int inWord = size - w * COPIES_PER_WORD;
+        if (inWord >= COPIES_PER_WORD) {
+            return -1L;
+        }
+        return (1L << (inWord * BITS_PER_COPY)) - 1;
+    }
+
+    private static int shift(int copy) {
+        return (copy % COPIES_PER_WORD) * BITS_PER_COPY;
+    }
+
+    private void checkIndex(int copy) {
+        if (copy < 0 || copy >= size) {
+            throw new IndexOutOfBoundsException("copy " + copy + " of " + size);
+        }
+    }
+}
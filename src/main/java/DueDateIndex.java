@@ -0,0 +1,123 @@
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Range-queryable index of open loans ordered by due date (epoch day), then patron, then ISBN.
+ * Maintained by Checkout on checkout, renewal and return so nightly jobs can pull just the
+ * loans due in a window instead of walking every patron.
+ *
+ * Each loan is also recorded under (patron, ISBN), so a renewal or return replaces the
+ * loan's entry whatever due day it was indexed under; an index entry can never outlive
+ * its loan because a due date was changed without going through Checkout.
+ *
+ * Backed by concurrent skip lists so circulation threads can update it while a
+ * reminder run is reading a window.
+ */
+final class DueDateIndex {
+
+    /**
+     * One open loan keyed by its due date.
+     */
+    static final class Entry implements Comparable<Entry> {
+        final long dueEpochDay;
+        final String patronId;
+        final String isbn;
+
+        Entry(long dueEpochDay, String patronId, String isbn) {
+            this.dueEpochDay = dueEpochDay;
+            this.patronId = patronId;
+            this.isbn = isbn;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byDay = Long.compare(dueEpochDay, other.dueEpochDay);
+            if (byDay != 0) {
+                return byDay;
+            }
+            int byPatron = compareIds(patronId, other.patronId);
+            return byPatron != 0 ? byPatron : compareIds(isbn, other.isbn);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof Entry)) return false;
+            Entry other = (Entry) obj;
+            return dueEpochDay == other.dueEpochDay
+                    && Objects.equals(patronId, other.patronId)
+                    && Objects.equals(isbn, other.isbn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(dueEpochDay, patronId, isbn);
+        }
+
+        /**
+         * Index order of two patron IDs or ISBNs, null first.
+         */
+        static int compareIds(String a, String b) {
+            if (a == null || b == null) {
+                return a == null ? (b == null ? 0 : -1) : 1;
+            }
+            return a.compareTo(b);
+        }
+    }
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+    // patron ID ("" for null) -> ISBN -> indexed due day
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<String, Long>> loans = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes a loan, replacing the entry of an earlier due date for the same loan (renewal).
+     */
+    void add(String patronId, String isbn, long dueEpochDay) {
+        Long previous = loans.computeIfAbsent(key(patronId), k -> new ConcurrentSkipListMap<>())
+                .put(isbn, dueEpochDay);
+        if (previous != null && previous != dueEpochDay) {
+            entries.remove(new Entry(previous, patronId, isbn));
+        }
+        entries.add(new Entry(dueEpochDay, patronId, isbn));
+    }
+
+    /**
+     * Removes a loan under whatever due day it was indexed.
+     */
+    void remove(String patronId, String isbn) {
+        ConcurrentSkipListMap<String, Long> patronLoans = loans.get(key(patronId));
+        Long previous = patronLoans == null ? null : patronLoans.remove(isbn);
+        if (previous != null) {
+            entries.remove(new Entry(previous, patronId, isbn));
+            loans.computeIfPresent(key(patronId), (k, m) -> m.isEmpty() ? null : m);
+        }
+    }
+
+    private static String key(String patronId) {
+        return patronId == null ? "" : patronId;
+    }
+
+    /**
+     * Returns a live view of loans due between the two epoch days, both inclusive.
+     *
+     * @param fromEpochDay First due day of the window
+     * @param toEpochDay Last due day of the window
+     * @return Loans ordered by due day, patron, ISBN
+     */
+    NavigableSet<Entry> dueBetween(long fromEpochDay, long toEpochDay) {
+        return entries.subSet(new Entry(fromEpochDay, null, null), true,
+                new Entry(toEpochDay + 1, null, null), false);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void clear() {
+        entries.clear();
+        loans.clear();
+    }
+}
@@ -0,0 +1,266 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Nightly job that writes "due soon" reminders to a local spool file.
+ * The spool stands in for the mail service: each patron gets one REMINDER block listing
+ * every loan due in the window.
+ *
+ * Loans are pulled from the checkout's due-date index, so a run costs time proportional to
+ * the loans due in the window rather than the total number of loans. The window is walked
+ * once in index order (due day, patron, ISBN) and grouped by patron, so blocks come out in
+ * order of each patron's first due day in the window and list that patron's loans in due
+ * order. Index entries that no longer match the patron's loans (a due date changed outside
+ * Checkout) are skipped.
+ *
+ * Runs are resumable. After every batch the spool is forced to disk and a checkpoint
+ * (run key, position of the last block written, spool offset) is written, forced to disk
+ * and then moved atomically into place next to the spool. Re-running the same window after an interruption truncates any partial
+ * batch and continues after the last checkpointed block; re-running a completed window
+ * writes nothing.
+ *
+ * Spool format, one record per line:
+ *   REMINDER|runDate|patronId|email|name|loanCount
+ *   LOAN|isbn|dueDate|title
+ *   END
+ * Text fields escape a backslash as \\, '|' as \| and line breaks as \n and \r.
+ */
+public class DueReminderGenerator {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final Checkout checkout;
+    private final Path spool;
+    private final Path checkpoint;
+    private final int batchSize;
+
+    public DueReminderGenerator(Checkout checkout, Path spool) {
+        this(checkout, spool, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a generator writing to the given spool file.
+     *
+     * @param checkout The checkout system whose loans are scanned
+     * @param spool Spool file reminders are appended to
+     * @param batchSize Number of patrons written between checkpoints
+     */
+    public DueReminderGenerator(Checkout checkout, Path spool, int batchSize) {
+        this.checkout = checkout;
+        this.spool = spool;
+        this.checkpoint = spool.resolveSibling(spool.getFileName() + ".checkpoint");
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Writes reminders for every loan due from {@code today} through {@code today + days}.
+     *
+     * @param today Run date
+     * @param days Window length in days
+     * @return Number of patrons written by this invocation
+     * @throws IOException if the spool or checkpoint cannot be written
+     */
+    public int run(LocalDate today, int days) throws IOException {
+        return run(today, days, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #run(LocalDate, int)} but stops after {@code maxPatrons} patrons,
+     * leaving the checkpoint in place so the next call resumes where this one stopped.
+     *
+     * @param today Run date
+     * @param days Window length in days
+     * @param maxPatrons Maximum patrons to write in this invocation
+     * @return Number of patrons written by this invocation
+     * @throws IOException if the spool or checkpoint cannot be written
+     */
+    public int run(LocalDate today, int days, int maxPatrons) throws IOException {
+        String runKey = today + "+" + days;
+        Properties state = loadCheckpoint();
+        boolean resumed = false;
+        String lastPatron = null; // may be null for a loan of a patron without an ID
+        long lastDay = Long.MIN_VALUE;
+        long offset = -1;
+        if (runKey.equals(state.getProperty("run"))) {
+            if (Boolean.parseBoolean(state.getProperty("complete"))) {
+                return 0;
+            }
+            if (state.getProperty("lastDay") != null) {
+                resumed = true;
+                lastDay = Long.parseLong(state.getProperty("lastDay"));
+                lastPatron = state.getProperty("lastPatron");
+            }
+            offset = Long.parseLong(state.getProperty("offset"));
+        }
+
+        long from = today.toEpochDay();
+        long to = from + days;
+        Map<String, List<DueDateIndex.Entry>> blocks = windowLoans(checkout.dueDateIndex(), from, to);
+
+        try (FileChannel channel = FileChannel.open(spool, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (offset < 0) {
+                offset = channel.size();
+            }
+            // Anything past the checkpointed offset is a partial batch from an interrupted run
+            channel.truncate(offset);
+            channel.position(offset);
+            saveCheckpoint(runKey, resumed, lastDay, lastPatron, offset, false);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+            int written = 0;
+            int inBatch = 0;
+            boolean stopped = false;
+            for (Map.Entry<String, List<DueDateIndex.Entry>> block : blocks.entrySet()) {
+                DueDateIndex.Entry first = block.getValue().get(0);
+                if (resumed && (first.dueEpochDay < lastDay || first.dueEpochDay == lastDay
+                        && DueDateIndex.Entry.compareIds(first.patronId, lastPatron) <= 0)) {
+                    continue;
+                }
+                if (written == maxPatrons) {
+                    stopped = true;
+                    break;
+                }
+                writeReminder(out, today, block.getKey(), checkout.getPatrons().get(block.getKey()),
+                        block.getValue());
+                resumed = true;
+                lastDay = first.dueEpochDay;
+                lastPatron = first.patronId;
+                written++;
+                if (++inBatch == batchSize) {
+                    out.flush();
+                    channel.force(false);
+                    saveCheckpoint(runKey, resumed, lastDay, lastPatron, channel.position(), false);
+                    inBatch = 0;
+                }
+            }
+            out.flush();
+            channel.force(false);
+            saveCheckpoint(runKey, resumed, lastDay, lastPatron, channel.position(), !stopped);
+            return written;
+        }
+    }
+
+    /**
+     * Current loans due in the window, grouped by patron in one walk of the index. Patrons are
+     * in order of their first due day in the window, then patron ID; each patron's loans are
+     * in due order. Entries whose patron holds the loan under another due day are dropped.
+     */
+    private Map<String, List<DueDateIndex.Entry>> windowLoans(DueDateIndex index, long from, long to) {
+        Map<String, List<DueDateIndex.Entry>> blocks = new LinkedHashMap<>();
+        Map<String, Patron> patrons = checkout.getPatrons();
+        Map<String, Patron> seen = new HashMap<>();
+        for (DueDateIndex.Entry entry : index.dueBetween(from, to)) {
+            Patron patron = seen.get(entry.patronId);
+            if (patron == null && !seen.containsKey(entry.patronId)) {
+                patron = patrons.get(entry.patronId);
+                seen.put(entry.patronId, patron);
+            }
+            // A registered patron's own loans are authoritative over the index
+            if (patron == null || patron.getDueEpochDay(entry.isbn) == entry.dueEpochDay) {
+                blocks.computeIfAbsent(entry.patronId, id -> new ArrayList<>()).add(entry);
+            }
+        }
+        return blocks;
+    }
+
+    private void writeReminder(Writer out, LocalDate today, String patronId, Patron patron,
+                               List<DueDateIndex.Entry> loans) throws IOException {
+        String email = patron == null ? "" : patron.getEmail();
+        String name = patron == null ? "" : patron.getName();
+        out.write("REMINDER|" + today + "|" + escape(patronId) + "|" + escape(email) + "|" + escape(name)
+                + "|" + loans.size() + "\n");
+        for (DueDateIndex.Entry loan : loans) {
+            Book book = checkout.getInventory().get(loan.isbn);
+            String title = book == null ? "" : book.getTitle();
+            out.write("LOAN|" + escape(loan.isbn) + "|" + LocalDate.ofEpochDay(loan.dueEpochDay) + "|"
+                    + escape(title) + "\n");
+        }
+        out.write("END\n");
+    }
+
+    /**
+     * Escapes a text field so it cannot break the '|' and line structure of the spool.
+     */
+    static String escape(String field) {
+        if (field == null) {
+            return "";
+        }
+        StringBuilder escaped = null;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            String replacement = c == '\\' ? "\\\\" : c == '|' ? "\\|" : c == '\n' ? "\\n" : c == '\r' ? "\\r" : null;
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(field.length() + 8).append(field, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? field : escaped.toString();
+    }
+
+    private Properties loadCheckpoint() throws IOException {
+        Properties state = new Properties();
+        if (Files.exists(checkpoint)) {
+            try (InputStream in = Files.newInputStream(checkpoint)) {
+                state.load(in);
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Replaces the checkpoint. lastPatron is omitted for a block of a patron without an ID;
+     * lastDay alone then marks the position.
+     */
+    private void saveCheckpoint(String runKey, boolean started, long lastDay, String lastPatron, long offset,
+                                boolean complete) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("run", runKey);
+        if (started) {
+            state.setProperty("lastDay", Long.toString(lastDay));
+            if (lastPatron != null) {
+                state.setProperty("lastPatron", lastPatron);
+            }
+        }
+        state.setProperty("offset", Long.toString(offset));
+        state.setProperty("complete", Boolean.toString(complete));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        state.store(bytes, "due reminder checkpoint");
+        Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            // The rename must never expose a checkpoint whose contents are not on disk yet
+            out.force(true);
+        }
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
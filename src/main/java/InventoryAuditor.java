@@ -0,0 +1,531 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Predicate;
+
+/**
+ * Checks that every book's copy states agree with the loans recorded on patrons:
+ * a book's OUT copies must equal the number of patrons holding its ISBN, so
+ * available = total - loans - lost - in repair.
+ *
+ * A full audit counts loans per ISBN with a fork-join reduction over a snapshot of the
+ * patron list. Once an auditor exists, Checkout also keeps an index of which patrons hold
+ * each ISBN, updated inside the same loan-update bracket as the copy change; the auditor
+ * seeds it with one patron scan on creation, and every full audit reconciles it with the
+ * counts, which picks up loans added or removed directly on a Patron. Recounts, incremental audits and repairs read
+ * only the holders of the ISBNs in question, confirming each with Patron.holdsLoan, so their
+ * cost follows the loans of those ISBNs rather than the number of patrons.
+ *
+ * The audit runs alongside live circulation, so a single pass can catch a checkout between
+ * updating the patron and the book. Every candidate discrepancy is therefore recounted, and
+ * only reported if the recount shows the same drift while no checkout or return of that book
+ * was in flight (see Book.beginLoanUpdate). Candidates that never settle are not reported
+ * but stay in scope for the next incremental audit.
+ *
+ * Incremental audits only look at ISBNs whose loans changed since the previous audit
+ * (tracked by Checkout once the auditor is created), plus any discrepancy still open.
+ * A loan added or removed directly on a Patron after the last full audit is not indexed,
+ * so only the next full audit sees it.
+ */
+public class InventoryAuditor {
+    private static final int LEAF_SIZE = 4_096;
+    private static final int CONFIRM_PASSES = 4;
+
+    private final Checkout checkout;
+    private final ForkJoinPool pool;
+    private final Set<String> touched;
+    private final Map<String, Set<String>> holders; // ISBN -> holder keys, kept by Checkout
+    private final Set<String> unresolved;
+
+    public InventoryAuditor(Checkout checkout) {
+        this(checkout, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an auditor that counts loans on the given pool. Scans every patron once to
+     * index the loans made before the auditor existed.
+     *
+     * @param checkout The checkout system to audit
+     * @param pool Pool for the parallel loan count
+     */
+    public InventoryAuditor(Checkout checkout, ForkJoinPool pool) {
+        this.checkout = checkout;
+        this.pool = pool;
+        this.touched = checkout.trackTouchedIsbns();
+        this.holders = checkout.trackLoanHolders();
+        this.unresolved = Collections.synchronizedSet(new HashSet<>());
+        Patron[] patrons = snapshotPatrons();
+        pool.invoke(new LoanCount(checkout, patrons, 0, patrons.length, isbn -> true));
+    }
+
+    /**
+     * One book whose copy states disagree with the patrons' loans.
+     */
+    public static final class Discrepancy {
+        private final String isbn;
+        private final int loans;
+        private final int expectedAvailable;
+        private final int actualAvailable;
+
+        Discrepancy(String isbn, int loans, int expectedAvailable, int actualAvailable) {
+            this.isbn = isbn;
+            this.loans = loans;
+            this.expectedAvailable = expectedAvailable;
+            this.actualAvailable = actualAvailable;
+        }
+
+        public String getIsbn() {
+            return isbn;
+        }
+
+        public int getLoans() {
+            return loans;
+        }
+
+        public int getExpectedAvailable() {
+            return expectedAvailable;
+        }
+
+        public int getActualAvailable() {
+            return actualAvailable;
+        }
+
+        @Override
+        public String toString() {
+            return isbn + ": " + loans + " loans, expected " + expectedAvailable
+                    + " available, found " + actualAvailable;
+        }
+    }
+
+    /**
+     * Outcome of one audit run.
+     */
+    public static final class Report {
+        private final List<Discrepancy> discrepancies;
+        private final Map<String, Integer> unknownLoans;
+        private final int patronsScanned;
+        private final int booksChecked;
+        private final int repaired;
+        private final long elapsedNanos;
+
+        Report(List<Discrepancy> discrepancies, Map<String, Integer> unknownLoans,
+               int patronsScanned, int booksChecked, int repaired, long elapsedNanos) {
+            this.discrepancies = Collections.unmodifiableList(discrepancies);
+            this.unknownLoans = Collections.unmodifiableMap(unknownLoans);
+            this.patronsScanned = patronsScanned;
+            this.booksChecked = booksChecked;
+            this.repaired = repaired;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public List<Discrepancy> getDiscrepancies() {
+            return discrepancies;
+        }
+
+        /**
+         * Loans on ISBNs that are not in the inventory at all.
+         *
+         * @return ISBN to number of patrons holding it
+         */
+        public Map<String, Integer> getUnknownLoans() {
+            return unknownLoans;
+        }
+
+        public int getPatronsScanned() {
+            return patronsScanned;
+        }
+
+        public int getBooksChecked() {
+            return booksChecked;
+        }
+
+        public int getRepaired() {
+            return repaired;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public boolean isConsistent() {
+            return discrepancies.isEmpty() && unknownLoans.isEmpty();
+        }
+    }
+
+    /**
+     * Audits every book in the inventory.
+     *
+     * @param repair If true, copy states are corrected to match the loans
+     * @return The audit report
+     */
+    public Report audit(boolean repair) {
+        // Everything is about to be checked, so earlier touches are covered
+        touched.clear();
+        return run(null, repair);
+    }
+
+    /**
+     * Audits only books whose loans changed since the previous audit, plus books that
+     * were inconsistent last time and have not been repaired.
+     *
+     * @param repair If true, copy states are corrected to match the loans
+     * @return The audit report
+     */
+    public Report auditIncremental(boolean repair) {
+        Set<String> scope = new HashSet<>(unresolved);
+        for (Iterator<String> it = touched.iterator(); it.hasNext(); ) {
+            // Remove as we go: a loan change racing with this audit re-adds its ISBN
+            scope.add(it.next());
+            it.remove();
+        }
+        if (scope.isEmpty()) {
+            return new Report(new ArrayList<>(), new HashMap<>(), 0, 0, 0, 0L);
+        }
+        return run(scope, repair);
+    }
+
+    private Report run(Set<String> scope, boolean repair) {
+        long begin = System.nanoTime();
+        int patronsScanned;
+        Map<String, Integer> first;
+        if (scope == null) {
+            Patron[] patrons = snapshotPatrons();
+            patronsScanned = patrons.length;
+            Map<String, int[]> loans = pool.invoke(new LoanCount(checkout, patrons, 0, patrons.length, null));
+            first = new HashMap<>();
+            for (Map.Entry<String, int[]> entry : loans.entrySet()) {
+                first.put(entry.getKey(), entry.getValue()[0]);
+            }
+            reconcileHolders(patrons, loans);
+        } else {
+            int[] visited = new int[1];
+            first = countHolders(scope, visited);
+            patronsScanned = visited[0];
+        }
+        Map<String, Book> books = booksInScope(scope, first);
+        Map<String, Discrepancy> candidates = compare(books, first);
+        Map<String, Integer> unknown = unknown(books, first);
+
+        // A copy is OUT for a moment before its loan is recorded (and after it is removed), so
+        // live traffic shows up as transient drift. A candidate is only confirmed by a recount
+        // during which no checkout or return of that book was in flight.
+        List<Discrepancy> confirmed = new ArrayList<>();
+        for (int pass = 0; pass < CONFIRM_PASSES && !(candidates.isEmpty() && unknown.isEmpty()); pass++) {
+            if (pass > 0) {
+                Thread.yield(); // give a preempted checkout the chance to finish
+            }
+            Map<String, int[]> stamps = new HashMap<>();
+            for (String isbn : candidates.keySet()) {
+                Book book = books.get(isbn);
+                int ended = book.loanUpdatesEnded();
+                stamps.put(isbn, new int[] {book.loanUpdatesBegun(), ended});
+            }
+            Set<String> recheck = new HashSet<>(candidates.keySet());
+            recheck.addAll(unknown.keySet());
+            Map<String, Integer> again = countHolders(recheck, new int[1]);
+            Map<String, Discrepancy> drift = compare(subMap(books, candidates.keySet()), again);
+
+            Map<String, Discrepancy> unsettled = new HashMap<>();
+            for (Discrepancy d : candidates.values()) {
+                Discrepancy now = drift.get(d.isbn);
+                if (now == null) {
+                    continue; // was a change in flight
+                }
+                int[] stamp = stamps.get(d.isbn);
+                boolean quiet = stamp[0] == stamp[1] && books.get(d.isbn).loanUpdatesBegun() == stamp[0];
+                if (quiet && now.loans == d.loans && now.actualAvailable == d.actualAvailable) {
+                    confirmed.add(now);
+                } else {
+                    unsettled.put(d.isbn, now);
+                }
+            }
+            candidates = unsettled;
+            unknown.entrySet().removeIf(entry -> !entry.getValue().equals(again.get(entry.getKey()))
+                    || checkout.getInventory().get(entry.getKey()) != null);
+        }
+        confirmed.sort((a, b) -> a.isbn.compareTo(b.isbn));
+
+        int repaired = 0;
+        if (scope != null) {
+            unresolved.removeAll(scope);
+        } else {
+            unresolved.clear();
+        }
+        unresolved.addAll(candidates.keySet());
+        for (Discrepancy d : confirmed) {
+            if (repair && repair(books.get(d.isbn), d)) {
+                repaired++;
+            } else {
+                unresolved.add(d.isbn);
+            }
+        }
+        return new Report(confirmed, unknown, patronsScanned, books.size(), repaired,
+                System.nanoTime() - begin);
+    }
+
+    /**
+     * Moves copies between AVAILABLE and OUT until the OUT count matches the loans.
+     * Copies that open loans record as held are taken off the shelf first and are never
+     * put back, so a repair cannot free a copy a patron has. Uses the same atomic copy
+     * transitions as circulation, so it is safe to run live.
+     */
+    private boolean repair(Book book, Discrepancy d) {
+        BitSet held = heldCopies(book.getIsbn());
+        int delta = d.actualAvailable - d.expectedAvailable;
+        for (int copy = held.nextSetBit(0); copy >= 0 && delta > 0; copy = held.nextSetBit(copy + 1)) {
+            if (book.checkoutCopy(copy)) {
+                delta--;
+            }
+        }
+        while (delta > 0 && book.checkoutCopy() >= 0) {
+            delta--;
+        }
+        for (int copy = book.getTotalCopies() - 1; copy >= 0 && delta < 0; copy--) {
+            if (!held.get(copy) && book.returnCopy(copy)) {
+                delta++;
+            }
+        }
+        checkout.copiesChanged(book);
+        return delta == 0;
+    }
+
+    /**
+     * Copies of a book that its current holders' open transactions record.
+     * Loans made outside Checkout have no transaction and match no particular copy.
+     */
+    private BitSet heldCopies(String isbn) {
+        BitSet held = new BitSet();
+        for (Patron patron : holdersOf(isbn, new int[1])) {
+            int copy = checkout.loanedCopy(patron, isbn);
+            if (copy >= 0) {
+                held.set(copy);
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Loan counts for some ISBNs from the holder index.
+     *
+     * @param visited Receives the number of holder entries looked at
+     */
+    private Map<String, Integer> countHolders(Set<String> isbns, int[] visited) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String isbn : isbns) {
+            int held = holdersOf(isbn, visited).size();
+            if (held > 0) {
+                counts.put(isbn, held);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Registered patrons that currently hold an ISBN, according to the holder index.
+     * Index entries whose patron no longer holds the loan are skipped.
+     */
+    private List<Patron> holdersOf(String isbn, int[] visited) {
+        List<Patron> found = new ArrayList<>();
+        Set<String> keys = holders.get(isbn);
+        if (keys == null) {
+            return found;
+        }
+        for (String key : keys) {
+            visited[0]++;
+            Patron patron = checkout.holderPatron(key);
+            if (patron != null && patron.holdsLoan(isbn)) {
+                found.add(patron);
+            }
+        }
+        return found;
+    }
+
+    private Map<String, Discrepancy> compare(Map<String, Book> books, Map<String, Integer> loans) {
+        Map<String, Discrepancy> found = new HashMap<>();
+        for (Book book : books.values()) {
+            if (book.isReferenceOnly()) {
+                continue; // all copies are OUT by design and never loaned
+            }
+            int held = loans.getOrDefault(book.getIsbn(), 0);
+            int out = book.getCopyCount(Book.CopyState.OUT);
+            if (out != held) {
+                int expected = book.getTotalCopies() - held
+                        - book.getCopyCount(Book.CopyState.LOST)
+                        - book.getCopyCount(Book.CopyState.IN_REPAIR);
+                found.put(book.getIsbn(), new Discrepancy(book.getIsbn(), held, expected, book.getAvailableCopies()));
+            }
+        }
+        return found;
+    }
+
+    private Map<String, Integer> unknown(Map<String, Book> books, Map<String, Integer> loans) {
+        Map<String, Integer> unknown = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : loans.entrySet()) {
+            if (!books.containsKey(entry.getKey())) {
+                unknown.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return unknown;
+    }
+
+    private Map<String, Book> booksInScope(Set<String> scope, Map<String, Integer> loans) {
+        // The inventory is a concurrent map, so it can be read while books are being added
+        Map<String, Book> inventory = checkout.getInventory();
+        Map<String, Book> books = new HashMap<>();
+        Iterable<String> isbns = scope != null ? scope : loans.keySet();
+        for (String isbn : isbns) {
+            Book book = inventory.get(isbn);
+            if (book != null) {
+                books.put(isbn, book);
+            }
+        }
+        if (scope == null) {
+            // Books nobody holds still need their OUT count checked
+            for (Book book : inventory.values()) {
+                books.putIfAbsent(book.getIsbn(), book);
+            }
+        }
+        return books;
+    }
+
+    private static Map<String, Book> subMap(Map<String, Book> books, Set<String> keys) {
+        Map<String, Book> sub = new HashMap<>();
+        for (String key : keys) {
+            Book book = books.get(key);
+            if (book != null) {
+                sub.put(key, book);
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * Brings the holder index in line with a full count. An ISBN whose index entries differ
+     * from the holders seen by the count, by number or by the sum of their key hashes, has its
+     * stale entries dropped; if some holders are still missing (loans recorded directly on a
+     * Patron) the patrons are scanned once more for those ISBNs only. An index that already
+     * agrees costs no patron lookups.
+     */
+    private void reconcileHolders(Patron[] patrons, Map<String, int[]> loans) {
+        Set<String> missing = new HashSet<>();
+        for (Map.Entry<String, int[]> entry : loans.entrySet()) {
+            int[] seen = entry.getValue();
+            Set<String> keys = holders.get(entry.getKey());
+            if (keys == null || keys.size() != seen[0] || hashSum(keys) != seen[1]) {
+                pruneHolders(entry.getKey(), keys);
+                if (keys == null || keys.size() != seen[0] || hashSum(keys) != seen[1]) {
+                    missing.add(entry.getKey());
+                }
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : holders.entrySet()) {
+            if (!loans.containsKey(entry.getKey()) && !entry.getValue().isEmpty()) {
+                pruneHolders(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!missing.isEmpty()) {
+            pool.invoke(new LoanCount(checkout, patrons, 0, patrons.length, missing::contains));
+        }
+    }
+
+    private static int hashSum(Set<String> keys) {
+        int sum = 0;
+        for (String key : keys) {
+            sum += key.hashCode();
+        }
+        return sum;
+    }
+
+    /**
+     * Drops index entries for an ISBN whose patron is gone or no longer holds it.
+     */
+    private void pruneHolders(String isbn, Set<String> keys) {
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Patron patron = checkout.holderPatron(key);
+            if (patron == null) {
+                keys.remove(key);
+                continue;
+            }
+            // Checkout indexes a loan only after recording it on the patron, so checking and
+            // removing under the patron's lock cannot drop a loan that is being made
+            synchronized (patron) {
+                if (!patron.holdsLoan(isbn)) {
+                    keys.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-ISBN loan counts over a slice of the patron snapshot, each paired with the sum of the
+     * holders' index key hashes; halves are merged smaller into larger. Loans on ISBNs accepted
+     * by the index filter are also added to the checkout's holder index.
+     */
+    private static final class LoanCount extends RecursiveTask<Map<String, int[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Checkout checkout;
+        private final Patron[] patrons;
+        private final int from;
+        private final int to;
+        private final Predicate<String> index; // null to only count
+
+        LoanCount(Checkout checkout, Patron[] patrons, int from, int to, Predicate<String> index) {
+            this.checkout = checkout;
+            this.patrons = patrons;
+            this.from = from;
+            this.to = to;
+            this.index = index;
+        }
+
+        @Override
+        protected Map<String, int[]> compute() {
+            if (to - from <= LEAF_SIZE) {
+                Map<String, int[]> counts = new HashMap<>();
+                for (int i = from; i < to; i++) {
+                    String id = patrons[i].getPatronId();
+                    int key = id == null ? 0 : id.hashCode(); // the index keys null IDs as ""
+                    // Copied under the patron's lock, so a concurrent checkout or return on
+                    // the circulating thread is seen either whole or not at all
+                    for (String isbn : patrons[i].loanedIsbns()) {
+                        int[] seen = counts.computeIfAbsent(isbn, k -> new int[2]);
+                        seen[0]++;
+                        seen[1] += key;
+                        if (index != null && index.test(isbn)) {
+                            checkout.holderAdded(isbn, id);
+                        }
+                    }
+                }
+                return counts;
+            }
+            int mid = (from + to) >>> 1;
+            LoanCount left = new LoanCount(checkout, patrons, from, mid, index);
+            left.fork();
+            Map<String, int[]> right = new LoanCount(checkout, patrons, mid, to, index).compute();
+            Map<String, int[]> leftCounts = left.join();
+            Map<String, int[]> into = leftCounts.size() >= right.size() ? leftCounts : right;
+            Map<String, int[]> smaller = into == leftCounts ? right : leftCounts;
+            for (Map.Entry<String, int[]> entry : smaller.entrySet()) {
+                int[] seen = into.computeIfAbsent(entry.getKey(), k -> new int[2]);
+                seen[0] += entry.getValue()[0];
+                seen[1] += entry.getValue()[1];
+            }
+            return into;
+        }
+    }
+
+    private Patron[] snapshotPatrons() {
+        return checkout.snapshotPatrons().toArray(new Patron[0]);
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the ISBNs in the catalog, used to reject ISBNs we definitely do not own
+ * before probing the inventory map.
+ *
+ * Cache-line blocked: each ISBN maps to one 512-bit block and all of its probe bits fall
+ * inside that block, so a lookup costs a single cache miss. Block and probes come from a
+ * 64-bit hash of the ISBN's characters rather than String.hashCode: ISBNs with equal 32-bit
+ * hash codes would otherwise always collide, which puts a floor of about n / 2^32 under the
+ * false-positive rate whatever the filter's size.
+ *
+ * Sized from an expected number of titles and a target false-positive rate. Readers are
+ * lock-free (volatile word reads); writers are serialized by the owner. A filter never
+ * yields false negatives for ISBNs added to it, so a "no" answer is always safe to trust.
+ */
+final class IsbnBloomFilter {
+    private static final double LN2 = Math.log(2);
+    private static final int WORDS_PER_BLOCK = 8; // 64-byte cache line
+    private static final int BLOCK_MASK = WORDS_PER_BLOCK * Long.SIZE - 1;
+
+    private final AtomicLongArray words;
+    private final long blocks;
+    private final int hashes;
+    private final int capacity;
+    private int count;
+
+    /**
+     * Creates a filter sized for {@code capacity} ISBNs at the given false-positive rate.
+     *
+     * @param capacity Expected number of ISBNs
+     * @param falsePositiveRate Target false-positive rate, e.g. 0.01
+     */
+    IsbnBloomFilter(int capacity, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0.0 && falsePositiveRate < 1.0)) {
+            throw new IllegalArgumentException("false positive rate must be in (0, 1): " + falsePositiveRate);
+        }
+        this.capacity = Math.max(1, capacity);
+        // Blocking skews bit load slightly; 10% extra bits keeps the rate near the target
+        double bits = 1.1 * -this.capacity * Math.log(falsePositiveRate) / (LN2 * LN2);
+        this.blocks = Math.max(1, (long) Math.ceil(bits / (WORDS_PER_BLOCK * Long.SIZE)));
+        this.hashes = Math.max(1, (int) Math.round(-Math.log(falsePositiveRate) / LN2));
+        this.words = new AtomicLongArray(Math.toIntExact(blocks * WORDS_PER_BLOCK));
+    }
+
+    /**
+     * Records an ISBN. Callers must serialize writes.
+     *
+     * @param isbn ISBN to add (null is ignored)
+     */
+    void add(String isbn) {
+        if (isbn == null) {
+            return;
+        }
+        long hash = hash64(isbn);
+        int base = block(hash);
+        int probe = (int) (hash >>> 32);
+        int step = (int) hash | 1; // odd, so probes walk all 512 bit positions
+        for (int i = 0; i < hashes; i++) {
+            int bit = probe & BLOCK_MASK;
+            int w = base + (bit >>> 6);
+            words.set(w, words.get(w) | (1L << bit));
+            probe += step;
+        }
+        count++;
+    }
+
+    /**
+     * Returns false only if the ISBN was never added.
+     *
+     * @param isbn ISBN to test
+     * @return false if definitely absent, true if possibly present
+     */
+    boolean mightContain(String isbn) {
+        if (isbn == null) {
+            return false;
+        }
+        long hash = hash64(isbn);
+        int base = block(hash);
+        int probe = (int) (hash >>> 32);
+        int step = (int) hash | 1;
+        for (int i = 0; i < hashes; i++) {
+            int bit = probe & BLOCK_MASK;
+            if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+            probe += step;
+        }
+        return true;
+    }
+
+    boolean isFull() {
+        return count >= capacity;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long sizeInBytes() {
+        return blocks * WORDS_PER_BLOCK * Long.BYTES;
+    }
+
+    int hashCount() {
+        return hashes;
+    }
+
+    /**
+     * First word of the block for a hash, chosen with a multiply-shift instead of a division.
+     */
+    private int block(long hash) {
+        long mixed = Long.rotateLeft(hash, 17) * 0x9e3779b97f4a7c15L;
+        return (int) Math.multiplyHigh(mixed & Long.MAX_VALUE, blocks << 1) * WORDS_PER_BLOCK;
+    }
+
+    /**
+     * FNV-1a over the characters, then the Murmur3 finalizer to spread it over all 64 bits.
+     */
+    private static long hash64(String isbn) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < isbn.length(); i++) {
+            h = (h ^ isbn.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Offline analyzer for recordings made with config/jfr/circulation.jfc.
+ * Prints one latency table row per circulation event type and return code.
+ *
+ * Usage: {@code ./gradlew jfrReport --args="circulation.jfr"}
+ */
+public class JfrCirculationReport {
+
+    /**
+     * Latency distribution of one (event type, code) group.
+     */
+    static final class Row {
+        final String event;
+        final double code;
+        final long[] nanos;
+
+        Row(String event, double code, long[] nanos) {
+            this.event = event;
+            this.code = code;
+            this.nanos = nanos;
+        }
+
+        long count() {
+            return nanos.length;
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.ceil(p / 100.0 * nanos.length) - 1;
+            return nanos[Math.max(0, Math.min(nanos.length - 1, index))];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: JfrCirculationReport <recording.jfr>");
+            System.exit(2);
+        }
+        print(summarize(Paths.get(args[0])));
+    }
+
+    /**
+     * Reads every library.* event and groups durations by event type and return code.
+     *
+     * @param recording Path to a .jfr file
+     * @return Rows ordered by event name, then code
+     * @throws IOException if the recording cannot be read
+     */
+    static List<Row> summarize(Path recording) throws IOException {
+        Map<String, Map<Double, List<Long>>> groups = new TreeMap<>();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (!name.startsWith("library.")) {
+                    continue;
+                }
+                groups.computeIfAbsent(name, k -> new TreeMap<>())
+                        .computeIfAbsent(event.getDouble("code"), k -> new ArrayList<>())
+                        .add(event.getDuration().toNanos());
+            }
+        }
+
+        List<Row> rows = new ArrayList<>();
+        for (Map.Entry<String, Map<Double, List<Long>>> byEvent : groups.entrySet()) {
+            for (Map.Entry<Double, List<Long>> byCode : byEvent.getValue().entrySet()) {
+                long[] nanos = byCode.getValue().stream().mapToLong(Long::longValue).sorted().toArray();
+                rows.add(new Row(byEvent.getKey(), byCode.getKey(), nanos));
+            }
+        }
+        return rows;
+    }
+
+    static void print(List<Row> rows) {
+        System.out.printf("%-28s %8s %10s %12s %12s %12s %12s%n",
+                "event", "code", "count", "p50 us", "p90 us", "p99 us", "max us");
+        for (Row row : rows) {
+            System.out.printf("%-28s %8.2f %10d %12.1f %12.1f %12.1f %12.1f%n",
+                    row.event, row.code, row.count(),
+                    row.percentile(50) / 1e3, row.percentile(90) / 1e3,
+                    row.percentile(99) / 1e3, row.percentile(100) / 1e3);
+        }
+    }
+}
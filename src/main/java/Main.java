@@ -9,7 +9,7 @@ public class Main {
         System.out.println("=== Library Management System Demo ===\n");
 
         // Create checkout system
-        Checkout checkout = new Checkout(); // will not work for checkoutBook since it is not implemented  yet.
+        Checkout checkout = new Checkout();
 
         // Add some books to inventory
         Book book1 = new Book("978-0-1234-5678-9", "Introduction to Java", "John Smith",
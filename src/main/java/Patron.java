@@ -1,10 +1,20 @@
 import java.time.LocalDate;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * Represents a library patron (user).
  * Tracks checked out books, fines, and account status.
+ *
+ * Changes to the loan table are made holding the patron's monitor, so readers on other
+ * threads (the inventory auditor) can take a consistent look at it with
+ * {@link #loanedIsbns()} and {@link #holdsLoan(String)}.
  */
 public class Patron {
     private String patronId;
@@ -13,9 +23,11 @@ public class Patron {
     private PatronType type;
     private boolean suspended;
     private double fines;
-    private Map<String, LocalDate> bookMap;
+    private StringIntMap loans; // ISBN -> due date as epoch day
+    private Map<String, LocalDate> loanView; // created on first getCheckedOutBooks()
     private int overdue;
     private LocalDate memberDate;
+    private boolean dirty; // modified since last written to a PatronStore
 
     public enum PatronType {
         STUDENT,
@@ -40,9 +52,10 @@ public class Patron {
         this.type = type;
         this.suspended = false;
         this.fines = 0.0;
-        this.bookMap = new HashMap<>();
+        this.loans = new StringIntMap(0);
         this.overdue = 0;
         this.memberDate = LocalDate.now();
+        this.dirty = true;
     }
 
     // Getters
@@ -70,12 +83,22 @@ public class Patron {
         return fines;
     }
 
+    /**
+     * Returns a live view of the checked-out books. Loans are stored as epoch days, so
+     * due dates are materialized as LocalDate only when read through this view.
+     * Null ISBNs and due dates are not permitted (see addCheckedOutBook).
+     *
+     * @return ISBN to due date; changes through the view update the patron
+     */
     public Map<String, LocalDate> getCheckedOutBooks() {
-        return bookMap;
+        if (loanView == null) {
+            loanView = new LoanView();
+        }
+        return loanView;
     }
 
     public int getCheckoutCount() {
-        return bookMap.size();
+        return loans.size();
     }
 
     public int getOverdueCount() {
@@ -88,43 +111,27 @@ public class Patron {
 
     /**
      * Returns the maximum number of books this patron can check out
-     * based on their patron type.
+     * based on their patron type, from the current circulation policy.
      *
      * @return Maximum checkout limit
      */
     public int getMaxCheckoutLimit() {
-        switch (type) {
-            case FACULTY:
-                return 20;
-            case STAFF:
-                return 15;
-            case STUDENT:
-                return 10;
-            case PUBLIC:
-                return 5;
-            case CHILD:
-                return 3;
-            default:
-                return 5;
-        }
+        return CirculationPolicy.current().getMaxCheckoutLimit(type);
     }
 
     /**
-     * Returns the standard loan period in days for this patron type.
+     * Returns the standard loan period in days for this patron type,
+     * from the current circulation policy.
      *
      * @return Loan period in days
      */
     public int getLoanPeriodDays() {
-        if(type==PatronType.FACULTY)return 60;
-        else if(type==PatronType.STAFF)return 45;
-        else if(type==PatronType.STUDENT)return 30;
-        else if(type==PatronType.PUBLIC)return 21;
-        else if(type==PatronType.CHILD)return 14;
-        else return 21;
+        return CirculationPolicy.current().getLoanPeriodDays(type);
     }
 
     public void resetFines() {
         this.fines = 0.0;
+        this.dirty = true;
     }
 
     public boolean chkSuspended() {
@@ -134,10 +141,12 @@ public class Patron {
     // Setters
     public void setAccountSuspended(boolean suspended) {
         this.suspended = suspended;
+        this.dirty = true;
     }
 
     public void setOverdueCount(int count) {
         this.overdue = count;
+        this.dirty = true;
     }
 
     /**
@@ -148,6 +157,7 @@ public class Patron {
     public void addFine(double amount) {
         if (amount > 0) {
             this.fines += amount;
+            this.dirty = true;
         } else {
         }
     }
@@ -160,6 +170,7 @@ public class Patron {
      */
     public double payFine(double amount) {
         this.fines = Math.max(0, this.fines - amount);
+        this.dirty = true;
         return this.fines;
     }
 
@@ -168,9 +179,32 @@ public class Patron {
      *
      * @param isbn Book ISBN
      * @param dueDate Due date for the book
+     * @throws NullPointerException if isbn or dueDate is null
+     * @throws IllegalArgumentException if the due date is more than about 5.8 million
+     *         years from 1970 (its epoch day does not fit the loan table)
      */
     public void addCheckedOutBook(String isbn, LocalDate dueDate) {
-        bookMap.put(isbn, dueDate);
+        Objects.requireNonNull(isbn, "isbn");
+        long dueEpochDay = Objects.requireNonNull(dueDate, "dueDate").toEpochDay();
+        if (dueEpochDay <= StringIntMap.NONE || dueEpochDay > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("due date out of range: " + dueDate);
+        }
+        addCheckedOutBook(isbn, (int) dueEpochDay);
+    }
+
+    synchronized void addCheckedOutBook(String isbn, int dueEpochDay) {
+        loans.put(isbn, dueEpochDay);
+        this.dirty = true;
+    }
+
+    /**
+     * Due date of a checked-out book without creating a LocalDate.
+     *
+     * @param isbn Book ISBN
+     * @return Due epoch day, or StringIntMap.NONE if the book is not checked out
+     */
+    int getDueEpochDay(String isbn) {
+        return loans.get(isbn);
     }
 
     /**
@@ -178,8 +212,9 @@ public class Patron {
      *
      * @param isbn Book ISBN to remove
      */
-    public void removeCheckedOutBook(String isbn) {
-        bookMap.remove(isbn);
+    public synchronized void removeCheckedOutBook(String isbn) {
+        loans.remove(isbn);
+        this.dirty = true;
     }
 
     /**
@@ -189,13 +224,48 @@ public class Patron {
      * @return true if book is checked out by this patron
      */
     public boolean hasBookCheckedOut(String isbn) {
-        if (bookMap.containsKey(isbn) == true) {
+        if (loans.containsKey(isbn) == true) {
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * ISBNs currently on loan, for readers on another thread than the one circulating
+     * for this patron.
+     *
+     * @return A copy of the loaned ISBNs
+     */
+    synchronized String[] loanedIsbns() {
+        return loans.keys();
+    }
+
+    /**
+     * Same as hasBookCheckedOut, safe to call from another thread than the one
+     * circulating for this patron.
+     */
+    synchronized boolean holdsLoan(String isbn) {
+        return loans.containsKey(isbn);
+    }
+
+    // Persistence hooks used by PatronStore
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void markDirty() {
+        this.dirty = true;
+    }
+
+    void clearDirty() {
+        this.dirty = false;
+    }
+
+    void restoreMemberSince(LocalDate memberSince) {
+        this.memberDate = memberSince;
+    }
+
     /**
      * Compares patrons based on patronId.
      */
@@ -216,6 +286,147 @@ public class Patron {
 
     @Override
     public String toString() {
-        return patronId+"-"+name+"("+type+")"+"[Books:"+bookMap.size()+"/"+getMaxCheckoutLimit()+",Fines:$"+ fines +"]";
+        return patronId+"-"+name+"("+type+")"+"[Books:"+loans.size()+"/"+getMaxCheckoutLimit()+",Fines:$"+ fines +"]";
+    }
+
+    /**
+     * Map view over the primitive loan table.
+     *
+     * Iteration works on a snapshot of the loans and fails fast like HashMap: next() and
+     * remove() throw ConcurrentModificationException once a loan was added or removed other
+     * than through the iterator. Entries write through, so setValue moves the loan's due date.
+     * put rejects null ISBNs and due dates with NullPointerException; get and containsKey
+     * of null return null and false.
+     */
+    private final class LoanView extends AbstractMap<String, LocalDate> {
+
+        @Override
+        public int size() {
+            return loans.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && loans.containsKey((String) key);
+        }
+
+        @Override
+        public LocalDate get(Object key) {
+            int due = key instanceof String ? loans.get((String) key) : StringIntMap.NONE;
+            return due == StringIntMap.NONE ? null : LocalDate.ofEpochDay(due);
+        }
+
+        @Override
+        public LocalDate put(String isbn, LocalDate dueDate) {
+            LocalDate previous = get(isbn);
+            addCheckedOutBook(isbn, dueDate);
+            return previous;
+        }
+
+        @Override
+        public LocalDate remove(Object key) {
+            LocalDate previous = get(key);
+            if (previous != null) {
+                removeCheckedOutBook((String) key);
+            }
+            return previous;
+        }
+
+        @Override
+        public void clear() {
+            synchronized (Patron.this) {
+                loans.clear();
+                dirty = true;
+            }
+        }
+
+        @Override
+        public Set<Map.Entry<String, LocalDate>> entrySet() {
+            return new AbstractSet<Map.Entry<String, LocalDate>>() {
+                @Override
+                public int size() {
+                    return loans.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, LocalDate>> iterator() {
+                    return new LoanIterator();
+                }
+            };
+        }
+    }
+
+    private final class LoanIterator implements Iterator<Map.Entry<String, LocalDate>> {
+        private final String[] isbns;
+        private final int[] dueDays;
+        private int expectedModCount;
+        private int next;
+        private String last;
+
+        LoanIterator() {
+            synchronized (Patron.this) {
+                expectedModCount = loans.modCount();
+                isbns = loans.keys();
+                dueDays = new int[isbns.length];
+                for (int i = 0; i < isbns.length; i++) {
+                    dueDays[i] = loans.get(isbns[i]);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < isbns.length;
+        }
+
+        @Override
+        public Map.Entry<String, LocalDate> next() {
+            checkForComodification();
+            if (next >= isbns.length) {
+                throw new NoSuchElementException();
+            }
+            last = isbns[next];
+            return new LoanEntry(last, LocalDate.ofEpochDay(dueDays[next++]));
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            removeCheckedOutBook(last);
+            expectedModCount = loans.modCount();
+            last = null;
+        }
+
+        private void checkForComodification() {
+            if (loans.modCount() != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Entry whose setValue updates the loan's due date.
+     */
+    private final class LoanEntry extends AbstractMap.SimpleEntry<String, LocalDate> {
+        private static final long serialVersionUID = 1L;
+
+        LoanEntry(String isbn, LocalDate dueDate) {
+            super(isbn, dueDate);
+        }
+
+        /**
+         * @throws IllegalStateException if the loan was returned since the entry was read
+         */
+        @Override
+        public LocalDate setValue(LocalDate dueDate) {
+            if (!loans.containsKey(getKey())) {
+                throw new IllegalStateException("loan of " + getKey() + " is no longer present");
+            }
+            addCheckedOutBook(getKey(), dueDate);
+            return super.setValue(dueDate);
+        }
     }
 }
@@ -0,0 +1,182 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Per-patron index of transaction ids (positions in Checkout's history list), newest first.
+ *
+ * Each patron has a chain of int segments. The head segment receives new ids; while it is
+ * small it grows in place, and once it reaches CHAIN_SIZE a full head is replaced by a new
+ * segment (as large as the chain so far, up to MAX_SEGMENT) that links to the older ones. Ids therefore cost
+ * 4 bytes plus a small share of the segment headers, and a page of the newest entries is
+ * read without touching the rest of the chain. Like the rows of TransactionLog, each segment
+ * also has a skew-binary jump pointer further down the chain, so a page deep in a long
+ * history is reached in O(log segments) steps instead of one step per MAX_SEGMENT ids.
+ *
+ * Not thread-safe; Checkout guards it with the history lock.
+ */
+final class PatronHistoryIndex {
+    private static final int FIRST_SEGMENT = 2;
+    private static final int CHAIN_SIZE = 64; // smaller heads are regrown instead of chained
+    private static final int MAX_SEGMENT = 256;
+
+    // Rough HotSpot sizes with compressed oops, for the memory estimate
+    private static final int SEGMENT_OBJECT_BYTES = 32;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int MAP_ENTRY_BYTES = 40;
+
+    /**
+     * Ids in insertion order; older ids live in {@code older}.
+     */
+    private static final class Segment {
+        int[] ids;
+        final Segment older;
+        final Segment jump; // older segment for O(log n) seeks, the segment itself at the end
+        final int depth; // older segments in the chain
+        final int before; // ids in all older segments
+        int count;
+
+        Segment(int size, Segment older) {
+            this.ids = new int[size];
+            this.older = older;
+            if (older == null) {
+                this.jump = this;
+                this.depth = 0;
+                this.before = 0;
+            } else {
+                // Skew-binary: jump two equal spans at once, otherwise just to the older segment
+                Segment j = older.jump;
+                this.jump = older.depth - j.depth == j.depth - j.jump.depth ? j.jump : older;
+                this.depth = older.depth + 1;
+                this.before = older.before + older.count;
+            }
+        }
+    }
+
+    private final Map<String, Segment> heads = new HashMap<>();
+    private long ids;
+    private long segmentSlots;
+    private long segments;
+    private long seekSteps;
+
+    /**
+     * Appends a transaction id; ids must be added in increasing order per patron.
+     *
+     * @param patronId Patron the transaction belongs to
+     * @param id Transaction id
+     */
+    void add(String patronId, int id) {
+        Segment head = heads.get(patronId);
+        if (head == null) {
+            head = new Segment(FIRST_SEGMENT, null);
+            heads.put(patronId, head);
+            segments++;
+            segmentSlots += FIRST_SEGMENT;
+        } else if (head.count == head.ids.length) {
+            if (head.ids.length < CHAIN_SIZE) {
+                int size = head.ids.length * 2;
+                segmentSlots += size - head.ids.length;
+                head.ids = Arrays.copyOf(head.ids, size);
+            } else {
+                // New segment as large as the whole chain so far, so slack stays under half
+                int size = Math.min(MAX_SEGMENT, head.before + head.count);
+                head = new Segment(size, head);
+                heads.put(patronId, head);
+                segments++;
+                segmentSlots += size;
+            }
+        }
+        head.ids[head.count++] = id;
+        ids++;
+    }
+
+    /**
+     * Number of transactions recorded for a patron.
+     *
+     * @param patronId Patron ID
+     * @return Transaction count, 0 for an unknown patron
+     */
+    int count(String patronId) {
+        Segment head = heads.get(patronId);
+        return head == null ? 0 : head.before + head.count;
+    }
+
+    /**
+     * One page of a patron's transaction ids, newest first. Seeks to the offset along the
+     * jump pointers, so the cost is O(log offset + limit).
+     *
+     * @param patronId Patron ID
+     * @param offset Number of newer ids to skip
+     * @param limit Maximum number of ids to return
+     * @return The ids, possibly fewer than {@code limit}
+     */
+    int[] page(String patronId, int offset, int limit) {
+        Segment segment = heads.get(patronId);
+        int total = segment == null ? 0 : segment.before + segment.count;
+        int size = Math.max(0, Math.min(limit, total - offset));
+        int[] page = new int[size];
+        if (size == 0) {
+            return page;
+        }
+        // Seek to the segment holding the offset; only the head is still filling, so the
+        // segments a jump lands on have their final count
+        int target = total - 1 - offset; // position counted from the oldest id
+        while (segment.before > target) {
+            Segment jump = segment.jump;
+            segment = jump.before + jump.count > target ? jump : segment.older;
+            seekSteps++;
+        }
+        int i = target - segment.before;
+        for (int n = 0; n < size; n++) {
+            if (i < 0) {
+                segment = segment.older;
+                i = segment.count - 1;
+            }
+            page[n] = segment.ids[i--];
+        }
+        return page;
+    }
+
+    /**
+     * Walks a patron's ids newest first until one matches.
+     *
+     * @param patronId Patron ID
+     * @param match Test applied to each id
+     * @return The newest matching id, or -1
+     */
+    int findNewest(String patronId, IntPredicate match) {
+        for (Segment segment = heads.get(patronId); segment != null; segment = segment.older) {
+            for (int i = segment.count - 1; i >= 0; i--) {
+                if (match.test(segment.ids[i])) {
+                    return segment.ids[i];
+                }
+            }
+        }
+        return -1;
+    }
+
+    long size() {
+        return ids;
+    }
+
+    /**
+     * Segments stepped through by page seeks so far, to check that deep pages stay cheap.
+     *
+     * @return Steps
+     */
+    long seekSteps() {
+        return seekSteps;
+    }
+
+    /**
+     * Estimated heap used by the index: map entries, segment objects and their arrays.
+     *
+     * @return Bytes
+     */
+    long sizeInBytesEstimate() {
+        return heads.size() * (long) MAP_ENTRY_BYTES
+                + segments * (SEGMENT_OBJECT_BYTES + ARRAY_HEADER_BYTES)
+                + segmentSlots * Integer.BYTES;
+    }
+}
@@ -0,0 +1,503 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Disk-backed patron map with a bounded LRU cache of hydrated Patron objects.
+ *
+ * Patron records live in an append-only data file; an in-memory index maps each patron id
+ * to the offset of its latest record. A patron is read from disk on first access and kept in
+ * the cache; when the cache is over capacity the least recently used patron is evicted and,
+ * if it was modified (new loans, fines, ...), written back first. {@link #checkpoint()} writes
+ * every dirty cached patron and persists the index so the next open is fast; records appended
+ * after the last checkpoint are recovered by scanning the tail of the data file on open.
+ *
+ * Plug into Checkout with {@code new Checkout(store)}: registerPatron, getPatrons() and
+ * checkoutBook then work unchanged. Iterating the whole map hydrates every patron through
+ * the cache, so bulk scans are correct but slow.
+ *
+ * An evicted patron that a caller still references stays the patron's only instance: the
+ * store keeps a weak reference to it, and the next lookup or {@link #resolve(Patron)}
+ * re-admits that object instead of reading a second copy from disk. Checkout resolves
+ * every patron it is handed, so loans and fines recorded through Checkout on a held patron
+ * always land on the cached instance. Direct changes to a held, evicted patron are written
+ * by the next lookup-and-eviction or {@link #checkpoint()}, and are lost only if the object
+ * becomes unreachable before either. Superseded records stay in the data file until it is
+ * rewritten offline.
+ */
+public class PatronStore extends AbstractMap<String, Patron> implements Closeable {
+    private static final long NOT_WRITTEN = -1L;
+
+    /**
+     * Cache slot: the hydrated patron and its estimated heap footprint.
+     */
+    private static final class Cached {
+        final Patron patron;
+        final long bytes;
+
+        Cached(Patron patron) {
+            this.patron = patron;
+            this.bytes = estimateBytes(patron);
+        }
+    }
+
+    /**
+     * Evicted patron that may still be referenced by a caller.
+     */
+    private static final class Detached extends WeakReference<Patron> {
+        final String key;
+
+        Detached(String key, Patron patron, ReferenceQueue<Patron> queue) {
+            super(patron, queue);
+            this.key = key;
+        }
+    }
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final RandomAccessFile data;
+    private final int capacity;
+    private final Map<String, Long> index; // patronId -> offset of latest record
+    private final LinkedHashMap<String, Cached> cache; // access order = LRU
+    private final Map<String, Detached> detached = new HashMap<>(); // evicted but maybe still held
+    private final ReferenceQueue<Patron> collected = new ReferenceQueue<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+    private long residentBytes;
+
+    /**
+     * Opens (or creates) a store.
+     *
+     * @param dataFile Patron data file; the index is kept next to it with an ".idx" suffix
+     * @param capacity Maximum number of hydrated patrons kept in memory
+     * @throws IOException if the files cannot be opened or read
+     */
+    public PatronStore(Path dataFile, int capacity) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = dataFile.resolveSibling(dataFile.getFileName() + ".idx");
+        this.data = new RandomAccessFile(dataFile.toFile(), "rw");
+        this.capacity = Math.max(1, capacity);
+        this.index = new HashMap<>();
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+        long indexedUpTo = loadIndex();
+        recoverTail(indexedUpTo);
+    }
+
+    // ---------------------------------------------------------------- Map
+
+    @Override
+    public synchronized Patron get(Object key) {
+        Cached cached = cache.get(key);
+        if (cached != null) {
+            hits++;
+            return cached.patron;
+        }
+        Long offset = index.get(key);
+        if (offset == null) {
+            return null;
+        }
+        misses++;
+        Patron held = revive(key);
+        if (held != null) {
+            return held;
+        }
+        if (offset == NOT_WRITTEN) {
+            return null;
+        }
+        try {
+            Patron patron = readRecord(offset);
+            admit(patron.getPatronId(), patron);
+            return patron;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to hydrate patron " + key, e);
+        }
+    }
+
+    /**
+     * The store's instance of a patron, e.g. one fetched earlier and evicted since.
+     *
+     * @param patron A patron, typically obtained from this store (can be null)
+     * @return The cached instance with the same id, the argument itself when it is the
+     *         store's instance or is not stored here, or null for null
+     */
+    public synchronized Patron resolve(Patron patron) {
+        if (patron == null) {
+            return null;
+        }
+        String key = patron.getPatronId();
+        Cached cached = cache.get(key);
+        if (cached != null) {
+            return cached.patron;
+        }
+        if (!index.containsKey(key)) {
+            return patron;
+        }
+        Patron stored = get(key);
+        return stored == null ? patron : stored;
+    }
+
+    @Override
+    public synchronized Patron put(String key, Patron patron) {
+        Patron previous = containsKey(key) ? get(key) : null;
+        Cached old = cache.remove(key);
+        if (old != null) {
+            residentBytes -= old.bytes;
+        }
+        detached.remove(key);
+        if (!index.containsKey(key)) {
+            index.put(key, NOT_WRITTEN);
+        }
+        // Force a write-back even if the caller passes a patron hydrated from another store
+        patron.markDirty();
+        admit(key, patron);
+        return previous;
+    }
+
+    @Override
+    public synchronized Patron remove(Object key) {
+        Patron previous = get(key);
+        Cached cached = cache.remove(key);
+        if (cached != null) {
+            residentBytes -= cached.bytes;
+        }
+        detached.remove(key);
+        index.remove(key);
+        return previous;
+    }
+
+    @Override
+    public synchronized boolean containsKey(Object key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Patron>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Patron>>() {
+            @Override
+            public Iterator<Map.Entry<String, Patron>> iterator() {
+                List<String> ids;
+                synchronized (PatronStore.this) {
+                    ids = new ArrayList<>(index.keySet());
+                }
+                Iterator<String> keys = ids.iterator();
+                return new Iterator<Map.Entry<String, Patron>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, Patron> next() {
+                        String id = keys.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(id, get(id));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PatronStore.this.size();
+            }
+        };
+    }
+
+    // ---------------------------------------------------------------- persistence
+
+    /**
+     * Writes every dirty cached patron and persists the index.
+     *
+     * @throws IOException if the data or index file cannot be written
+     */
+    public synchronized void checkpoint() throws IOException {
+        for (Cached cached : cache.values()) {
+            if (cached.patron.isDirty()) {
+                writeBack(cached.patron);
+            }
+        }
+        for (Detached ref : detached.values()) {
+            Patron patron = ref.get();
+            if (patron != null && patron.isDirty()) {
+                writeBack(patron);
+            }
+        }
+        data.getFD().sync();
+
+        Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeLong(data.length());
+            out.writeInt(index.size());
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        checkpoint();
+        data.close();
+    }
+
+    /**
+     * Re-admits an evicted patron that is still referenced somewhere.
+     *
+     * @return The revived instance, or null if none is alive
+     */
+    private Patron revive(Object key) {
+        Detached ref = detached.remove(key);
+        Patron patron = ref == null ? null : ref.get();
+        if (patron != null) {
+            admit((String) key, patron);
+        }
+        return patron;
+    }
+
+    private void admit(String key, Patron patron) {
+        expungeCollected();
+        detached.remove(key);
+        Cached cached = new Cached(patron);
+        cache.put(key, cached);
+        residentBytes += cached.bytes;
+        if (cache.size() <= capacity) {
+            return;
+        }
+        Iterator<Map.Entry<String, Cached>> eldest = cache.entrySet().iterator();
+        Map.Entry<String, Cached> victim = eldest.next();
+        eldest.remove();
+        residentBytes -= victim.getValue().bytes;
+        evictions++;
+        Patron evicted = victim.getValue().patron;
+        if (evicted.isDirty()) {
+            try {
+                writeBack(evicted);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to write back patron " + evicted.getPatronId(), e);
+            }
+        }
+        detached.put(victim.getKey(), new Detached(victim.getKey(), evicted, collected));
+    }
+
+    private void expungeCollected() {
+        for (Object ref; (ref = collected.poll()) != null; ) {
+            Detached gone = (Detached) ref;
+            detached.remove(gone.key, gone);
+        }
+    }
+
+    private void writeBack(Patron patron) throws IOException {
+        byte[] record = serialize(patron);
+        long offset = data.length();
+        data.seek(offset);
+        data.writeInt(record.length);
+        data.write(record);
+        index.put(patron.getPatronId(), offset);
+        patron.clearDirty();
+        writeBacks++;
+    }
+
+    private Patron readRecord(long offset) throws IOException {
+        data.seek(offset);
+        byte[] record = new byte[data.readInt()];
+        data.readFully(record);
+        return deserialize(record);
+    }
+
+    private long loadIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return 0L;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            long indexedUpTo = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                index.put(in.readUTF(), in.readLong());
+            }
+            return indexedUpTo;
+        }
+    }
+
+    /**
+     * Indexes records written after the last checkpoint and drops a torn final record.
+     */
+    private void recoverTail(long from) throws IOException {
+        long offset = Math.min(from, data.length());
+        while (offset < data.length()) {
+            try {
+                data.seek(offset);
+                int length = data.readInt();
+                if (length < 0 || offset + Integer.BYTES + length > data.length()) {
+                    throw new EOFException();
+                }
+                byte[] record = new byte[length];
+                data.readFully(record);
+                index.put(new DataInputStream(new ByteArrayInputStream(record)).readUTF(), offset);
+                offset += Integer.BYTES + length;
+            } catch (EOFException e) {
+                data.setLength(offset);
+                break;
+            }
+        }
+    }
+
+    private static byte[] serialize(Patron patron) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(patron.getPatronId());
+        writeNullable(out, patron.getName());
+        writeNullable(out, patron.getEmail());
+        out.writeByte(patron.getType() == null ? -1 : patron.getType().ordinal());
+        out.writeBoolean(patron.isAccountSuspended());
+        out.writeDouble(patron.getFineBalance());
+        out.writeInt(patron.getOverdueCount());
+        out.writeLong(patron.getMemberSince().toEpochDay());
+        Map<String, LocalDate> loans = patron.getCheckedOutBooks();
+        out.writeInt(loans.size());
+        for (Map.Entry<String, LocalDate> loan : loans.entrySet()) {
+            out.writeUTF(loan.getKey());
+            out.writeLong(loan.getValue().toEpochDay());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Patron deserialize(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String id = in.readUTF();
+        String name = readNullable(in);
+        String email = readNullable(in);
+        int type = in.readByte();
+        Patron patron = new Patron(id, name, email, type < 0 ? null : Patron.PatronType.values()[type]);
+        patron.setAccountSuspended(in.readBoolean());
+        patron.addFine(in.readDouble());
+        patron.setOverdueCount(in.readInt());
+        patron.restoreMemberSince(LocalDate.ofEpochDay(in.readLong()));
+        int loans = in.readInt();
+        for (int i = 0; i < loans; i++) {
+            patron.addCheckedOutBook(in.readUTF(), LocalDate.ofEpochDay(in.readLong()));
+        }
+        patron.clearDirty();
+        return patron;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Rough heap footprint of a hydrated patron: object headers, strings and loan map nodes.
+     */
+    private static long estimateBytes(Patron patron) {
+        long strings = length(patron.getPatronId()) + length(patron.getName()) + length(patron.getEmail());
+        return 160 + 3 * 40 + strings + 88L * patron.getCheckoutCount();
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    // ---------------------------------------------------------------- metrics
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Fraction of lookups served from the cache (a revived evicted patron counts as a miss).
+     *
+     * @return Hit rate between 0.0 and 1.0 (0.0 before any lookup)
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized long getWriteBackCount() {
+        return writeBacks;
+    }
+
+    public synchronized int getResidentCount() {
+        return cache.size();
+    }
+
+    /**
+     * Evicted patrons that were still reachable from outside the store when last checked.
+     * Entries are dropped once the garbage collector has cleared them.
+     *
+     * @return Number of evicted patrons tracked for revival
+     */
+    public synchronized int getDetachedCount() {
+        expungeCollected();
+        return detached.size();
+    }
+
+    /**
+     * Estimated heap held by hydrated patrons (entries are sized when admitted).
+     *
+     * @return Estimated bytes
+     */
+    public synchronized long getResidentBytesEstimate() {
+        return residentBytes;
+    }
+
+    public synchronized long getDataFileBytes() throws IOException {
+        return data.length();
+    }
+
+    public Path getDataFile() {
+        return dataFile;
+    }
+
+    @Override
+    public String toString() {
+        return "PatronStore[" + dataFile + ",patrons=" + size() + ",resident=" + getResidentCount() + "/" + capacity
+                + ",hitRate=" + String.format("%.3f", getHitRate()) + "]";
+    }
+}
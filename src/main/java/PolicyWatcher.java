@@ -0,0 +1,83 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Reloads the circulation policy whenever its config file changes.
+ *
+ * Polls the file's modification time and size from a daemon thread; polling works the same
+ * on every filesystem and a policy file changes rarely. A file that fails to load leaves the
+ * current policy in place and is retried after its next change. Replace the file atomically
+ * (write a temporary file, then rename it) so a half-written file is never loaded.
+ */
+public class PolicyWatcher implements Closeable {
+    private final Path file;
+    private final long intervalMillis;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile Exception lastError;
+    private long lastModified = Long.MIN_VALUE;
+    private long lastSize = -1;
+
+    /**
+     * Loads the file now and starts watching it.
+     *
+     * @param file Policy config file (see CirculationPolicy)
+     * @param intervalMillis Polling interval
+     * @throws IOException if the initial load fails
+     */
+    public PolicyWatcher(Path file, long intervalMillis) throws IOException {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        CirculationPolicy.reload(file);
+        lastModified = attributes.lastModifiedTime().toMillis();
+        lastSize = attributes.size();
+        this.thread = new Thread(this::run, "policy-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the error from the most recent failed reload.
+     *
+     * @return The error, or null if the last change loaded cleanly
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+    }
+
+    private void run() {
+        while (!closed) {
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                long modified = attributes.lastModifiedTime().toMillis();
+                if (modified == lastModified && attributes.size() == lastSize) {
+                    continue;
+                }
+                lastModified = modified;
+                lastSize = attributes.size();
+                CirculationPolicy.reload(file);
+                lastError = null;
+            } catch (IOException | IllegalArgumentException e) {
+                lastError = e;
+            }
+        }
+    }
+}
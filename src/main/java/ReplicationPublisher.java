@@ -0,0 +1,345 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ships a primary Checkout's circulation events to a replica over a byte stream
+ * (typically a loopback socket or a pipe).
+ *
+ * Every frame is: type (byte), sequence (long), primary timestamp in epoch nanos (long),
+ * followed by the type-specific payload. Frames are encoded and queued under one lock, so
+ * the stream order is a total order of the primary's changes. A dedicated shipping thread
+ * drains the bounded queue and writes whatever has accumulated with a single flush, so
+ * circulation threads never wait on the socket.
+ *
+ * Overflow: when the queue is full a circulation thread waits up to the overflow timeout for
+ * room (backpressure). If the replica is still behind after that, or the stream breaks, the
+ * publisher drops the replica: queued frames are discarded, nothing more is shipped and
+ * {@link #getFailure()} reports why. Circulation on the primary continues; to resync, start
+ * a new replica and {@link #attach(Checkout, OutputStream)} it, which ships a fresh snapshot.
+ *
+ * A book is shipped as BOOK_ADDED followed by COPY_STATES, so the replica starts from the
+ * primary's exact copy table rather than "the first n copies are available". A frame that
+ * cannot be encoded (e.g. a null ID) drops the replica like a stream failure; the primary's
+ * own change is never failed by replication.
+ *
+ * Only changes made through Checkout are shipped. Direct Patron setters (suspensions,
+ * overdue counts, fine payments) are not replicated, and direct copy changes on a Book
+ * (lost, repair, setAvailableCopies) reach the replica only when reported with
+ * {@link Checkout#copiesChanged(Book)}; the inventory auditor reports its repairs.
+ */
+public class ReplicationPublisher implements CirculationListener, Closeable {
+    static final byte BOOK_ADDED = 1;
+    static final byte PATRON_REGISTERED = 2;
+    static final byte CHECKOUT = 3;
+    static final byte RENEW = 4;
+    static final byte FINE = 5;
+    static final byte RETURN = 6;
+    static final byte COPY_STATES = 7;
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 65_536;
+    public static final long DEFAULT_OVERFLOW_TIMEOUT_MILLIS = 1_000;
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    /**
+     * Payload writer for one frame.
+     */
+    private interface Frame {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final DataOutputStream out;
+    private final BlockingQueue<byte[]> queue; // encoded frames in sequence order
+    private final int queueCapacity;
+    private final long overflowTimeoutNanos;
+    private final Thread shipper;
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    private long sequence;
+    private volatile long shippedSequence;
+    private boolean closed;
+
+    public ReplicationPublisher(OutputStream out) {
+        this(out, DEFAULT_QUEUE_CAPACITY, DEFAULT_OVERFLOW_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param out Stream connected to the replica
+     * @param queueCapacity Frames that may wait for the shipping thread
+     * @param overflowTimeoutMillis How long a circulation thread waits for room in a full
+     *                              queue before the replica is dropped
+     */
+    public ReplicationPublisher(OutputStream out, int queueCapacity, long overflowTimeoutMillis) {
+        if (queueCapacity < 1 || overflowTimeoutMillis < 0) {
+            throw new IllegalArgumentException("queue capacity must be positive and timeout non-negative");
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.overflowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(overflowTimeoutMillis);
+        this.shipper = new Thread(this::ship, "replication-publisher");
+        this.shipper.setDaemon(true);
+        this.shipper.start();
+    }
+
+    /**
+     * Sends a snapshot of the primary's current books and patrons, then streams every
+     * later change. Attach before circulation traffic starts so the snapshot is consistent.
+     *
+     * @param primary The checkout system to replicate
+     * @param out Stream connected to the replica
+     * @return The attached publisher
+     */
+    public static ReplicationPublisher attach(Checkout primary, OutputStream out) {
+        ReplicationPublisher publisher = new ReplicationPublisher(out);
+        for (Book book : primary.getInventory().values()) {
+            publisher.bookAdded(book);
+        }
+        for (Patron patron : primary.getPatrons().values()) {
+            publisher.patronRegistered(patron);
+        }
+        primary.setCirculationListener(publisher);
+        return publisher;
+    }
+
+    /**
+     * Sequence number of the last frame published (queued for the replica).
+     *
+     * @return Last sequence, 0 if nothing has been published
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sequence number of the last frame written and flushed to the stream.
+     *
+     * @return Last shipped sequence, 0 if nothing has been shipped
+     */
+    public long getShippedSequence() {
+        return shippedSequence;
+    }
+
+    @Override
+    public synchronized void bookAdded(Book book) {
+        publish(BOOK_ADDED, out -> {
+            out.writeUTF(book.getIsbn());
+            out.writeUTF(nullToEmpty(book.getTitle()));
+            out.writeUTF(nullToEmpty(book.getAuthor()));
+            out.writeByte(ordinal(book.getType()));
+            out.writeInt(book.getTotalCopies());
+            out.writeInt(book.getAvailableCopies());
+        });
+        // The available count alone does not say which copies are out
+        copiesChanged(book);
+    }
+
+    @Override
+    public void patronRegistered(Patron patron) {
+        publish(PATRON_REGISTERED, out -> {
+            out.writeUTF(patron.getPatronId());
+            out.writeUTF(nullToEmpty(patron.getName()));
+            out.writeUTF(nullToEmpty(patron.getEmail()));
+            out.writeByte(ordinal(patron.getType()));
+            out.writeBoolean(patron.isAccountSuspended());
+            out.writeDouble(patron.getFineBalance());
+            out.writeInt(patron.getOverdueCount());
+            Map<String, LocalDate> loans = patron.getCheckedOutBooks();
+            out.writeInt(loans.size());
+            for (Map.Entry<String, LocalDate> loan : loans.entrySet()) {
+                out.writeUTF(loan.getKey());
+                out.writeLong(loan.getValue().toEpochDay());
+            }
+        });
+    }
+
+    @Override
+    public void checkedOut(Patron patron, Book book, int copy, LocalDate dueDate) {
+        publish(CHECKOUT, out -> {
+            out.writeUTF(patron.getPatronId());
+            out.writeUTF(book.getIsbn());
+            out.writeInt(copy);
+            out.writeLong(dueDate.toEpochDay());
+        });
+    }
+
+    @Override
+    public void renewed(Patron patron, Book book, LocalDate dueDate) {
+        publish(RENEW, out -> {
+            out.writeUTF(patron.getPatronId());
+            out.writeUTF(book.getIsbn());
+            out.writeLong(dueDate.toEpochDay());
+        });
+    }
+
+    @Override
+    public void fineAssessed(Patron patron, Book book, double amount) {
+        publish(FINE, out -> {
+            out.writeUTF(patron.getPatronId());
+            out.writeDouble(amount);
+        });
+    }
+
+    @Override
+    public void returned(Patron patron, Book book, int copy) {
+        publish(RETURN, out -> {
+            out.writeUTF(patron.getPatronId());
+            out.writeUTF(book.getIsbn());
+            out.writeInt(copy);
+        });
+    }
+
+    @Override
+    public void copiesChanged(Book book) {
+        publish(COPY_STATES, out -> {
+            out.writeUTF(book.getIsbn());
+            out.writeInt(book.getTotalCopies());
+            for (int copy = 0; copy < book.getTotalCopies(); copy++) {
+                out.writeByte(book.getCopyState(copy).ordinal());
+            }
+        });
+    }
+
+    /**
+     * Returns the error that stopped shipping, if any.
+     *
+     * @return The stream failure or overflow, or null while the replica is connected
+     */
+    public IOException getFailure() {
+        return failure.get();
+    }
+
+    /**
+     * Ships the frames already queued, then closes the stream. Gives up (and drops the
+     * replica) if shipping makes no progress for the overflow timeout.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        long waitMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(overflowTimeoutNanos));
+        try {
+            if (!queue.offer(END_OF_STREAM, overflowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                fail(new IOException("replica stopped reading before close"));
+            }
+            long progress = -1;
+            while (shipper.isAlive() && shippedSequence != progress) {
+                progress = shippedSequence;
+                shipper.join(waitMillis);
+            }
+            if (shipper.isAlive()) {
+                fail(new IOException("replica stopped reading before close"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes and queues one frame. Waits at most the overflow timeout for room; a replica
+     * that falls further behind is dropped instead of slowing circulation down further.
+     */
+    private synchronized void publish(byte type, Frame frame) {
+        if (failure.get() != null || closed) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream encoded = new DataOutputStream(bytes);
+            encoded.writeByte(type);
+            encoded.writeLong(sequence + 1);
+            encoded.writeLong(epochNanos());
+            frame.write(encoded);
+            if (!queue.offer(bytes.toByteArray(), overflowTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                fail(new IOException("replica fell more than " + queueCapacity + " frames behind"));
+                return;
+            }
+            sequence++;
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            // A replication bug must not fail the primary's checkout, return or registration
+            fail(new IOException("cannot encode replication frame " + (sequence + 1), e));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new IOException("interrupted while waiting for the replication queue", e));
+        }
+    }
+
+    /**
+     * Shipping thread: writes queued frames in batches, flushing once per batch.
+     */
+    private void ship() {
+        List<byte[]> batch = new ArrayList<>();
+        long shipped = 0;
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                for (byte[] frame : batch) {
+                    if (frame == END_OF_STREAM) {
+                        out.flush();
+                        shippedSequence = shipped;
+                        return;
+                    }
+                    out.write(frame);
+                    shipped++;
+                }
+                out.flush();
+                shippedSequence = shipped;
+                batch.clear();
+                if (failure.get() != null) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("replication shipping interrupted", e));
+        }
+    }
+
+    /**
+     * Drops the replica: records the first failure and discards queued frames so a
+     * blocked publisher and the shipping thread both stop.
+     */
+    private void fail(IOException e) {
+        failure.compareAndSet(null, e);
+        queue.clear();
+        queue.offer(END_OF_STREAM);
+    }
+
+    static long epochNanos() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    /**
+     * Wire code of an enum constant, -1 for null.
+     */
+    static int ordinal(Enum<?> value) {
+        return value == null ? -1 : value.ordinal();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
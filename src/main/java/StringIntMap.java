@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from String keys to int values, e.g. ISBN to due epoch day.
+ *
+ * Keys and values live in two parallel arrays probed linearly, and removals shift the
+ * following entries back instead of leaving tombstones. Lookups, updates of an existing key,
+ * inserts below the resize threshold and removals allocate nothing, so a map that has
+ * reached its working size can be updated on a hot path without producing garbage.
+ *
+ * Null keys are never present. Not thread-safe; a structural change bumps
+ * {@link #modCount()} so views can detect concurrent modification.
+ */
+final class StringIntMap {
+    /** Returned by lookups for an absent key. */
+    static final int NONE = Integer.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 8;
+
+    private String[] keys;
+    private int[] values;
+    private int size;
+    private int modCount;
+
+    /**
+     * @param expectedSize Entries the map should hold without resizing
+     */
+    StringIntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new String[capacity];
+        values = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int modCount() {
+        return modCount;
+    }
+
+    /**
+     * @return The value for the key, or NONE if absent
+     */
+    int get(String key) {
+        if (key == null) {
+            return NONE;
+        }
+        String[] k = keys;
+        int mask = k.length - 1;
+        for (int i = slot(key, mask); k[i] != null; i = (i + 1) & mask) {
+            if (key.equals(k[i])) {
+                return values[i];
+            }
+        }
+        return NONE;
+    }
+
+    boolean containsKey(String key) {
+        return get(key) != NONE;
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value.
+     *
+     * @param key Non-null key
+     * @param value Any value but NONE
+     * @return The previous value, or NONE if the key was absent
+     */
+    int put(String key, int value) {
+        if (key == null || value == NONE) {
+            throw new IllegalArgumentException("key must not be null and value must not be NONE");
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (key.equals(keys[i])) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        modCount++;
+        if (++size > keys.length * 3 / 4) {
+            resize(keys.length << 1);
+        }
+        return NONE;
+    }
+
+    /**
+     * Adds delta to the key's value, inserting delta if absent.
+     *
+     * @return The new value
+     */
+    int add(String key, int delta) {
+        int previous = get(key);
+        int value = previous == NONE ? delta : previous + delta;
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * @return The removed value, or NONE if the key was absent
+     */
+    int remove(String key) {
+        if (key == null) {
+            return NONE;
+        }
+        int mask = keys.length - 1;
+        int i = slot(key, mask);
+        for (; keys[i] != null; i = (i + 1) & mask) {
+            if (key.equals(keys[i])) {
+                int removed = values[i];
+                deleteSlot(i, mask);
+                size--;
+                modCount++;
+                return removed;
+            }
+        }
+        return NONE;
+    }
+
+    void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Copies the keys into an array of exactly {@link #size()} elements, in slot order.
+     */
+    String[] keys() {
+        String[] copy = new String[size];
+        int n = 0;
+        for (String key : keys) {
+            if (key != null && n < copy.length) {
+                copy[n++] = key;
+            }
+        }
+        return n == copy.length ? copy : Arrays.copyOf(copy, n);
+    }
+
+    /**
+     * Closes the gap at a removed slot by moving back later entries of the same probe run
+     * whose home slot does not lie between the gap and their current slot.
+     */
+    private void deleteSlot(int gap, int mask) {
+        for (int i = (gap + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            int home = slot(keys[i], mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        String[] newKeys = new String[capacity];
+        int[] newValues = new int[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = slot(oldKeys[j], mask);
+                while (newKeys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                newKeys[i] = oldKeys[j];
+                newValues[i] = oldValues[j];
+            }
+        }
+        values = newValues;
+        keys = newKeys;
+    }
+
+    private static int slot(String key, int mask) {
+        int h = key.hashCode() * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * Transaction history stored column-wise in preallocated arrays, used by Checkout in
+ * allocation-free mode instead of Transaction objects and the PatronHistoryIndex.
+ *
+ * A transaction is an int id (its row). Each row links to the same patron's previous row,
+ * so a patron's history is a chain walked newest first from the row recorded per patron.
+ * Each row also has a skew-binary jump pointer further down the chain, so a page deep in a
+ * long history is reached in O(log n) steps instead of walking every newer row.
+ * Appending a row and updating its due or return day allocate nothing until the arrays
+ * are full; they then double, so a log sized for the expected volume never resizes.
+ *
+ * Not thread-safe; Checkout guards it with the history lock.
+ */
+final class TransactionLog {
+    /** Return day of a transaction that is still open. */
+    static final int OPEN = Integer.MIN_VALUE;
+
+    private Book[] books;
+    private int[] checkoutDays;
+    private int[] dueDays;
+    private int[] returnDays;
+    private int[] copies;
+    private int[] previous; // older row of the same patron, -1 at the end of the chain
+    private int[] position; // rows of the same patron before this one
+    private int[] jump; // older row of the same patron for O(log n) seeks, the row itself at the end
+    private final StringIntMap newest; // patron ID -> newest row
+    private int size;
+
+    /**
+     * @param capacity Rows to preallocate
+     * @param expectedPatrons Patrons to presize the per-patron table for
+     */
+    TransactionLog(int capacity, int expectedPatrons) {
+        int rows = Math.max(1, capacity);
+        books = new Book[rows];
+        checkoutDays = new int[rows];
+        dueDays = new int[rows];
+        returnDays = new int[rows];
+        copies = new int[rows];
+        previous = new int[rows];
+        position = new int[rows];
+        jump = new int[rows];
+        newest = new StringIntMap(expectedPatrons);
+    }
+
+    /**
+     * Appends an open transaction.
+     *
+     * @return Its id
+     */
+    int add(Patron patron, Book book, int checkoutDay, int dueDay, int copy) {
+        if (size == books.length) {
+            grow(size * 2);
+        }
+        int id = size++;
+        int older = newest.get(patron.getPatronId());
+        books[id] = book;
+        checkoutDays[id] = checkoutDay;
+        dueDays[id] = dueDay;
+        returnDays[id] = OPEN;
+        copies[id] = copy;
+        if (older == StringIntMap.NONE) {
+            previous[id] = -1;
+            position[id] = 0;
+            jump[id] = id;
+        } else {
+            previous[id] = older;
+            position[id] = position[older] + 1;
+            // Skew-binary: jump two equal spans at once, otherwise just to the previous row
+            int j = jump[older];
+            jump[id] = position[older] - position[j] == position[j] - position[jump[j]] ? jump[j] : older;
+        }
+        newest.put(patron.getPatronId(), id);
+        return id;
+    }
+
+    /**
+     * Newest open transaction of a patron for one ISBN. Walks the patron's chain from the
+     * newest row, so the cost grows with the patron's transactions since that loan (the
+     * whole chain if there is no open loan).
+     *
+     * @return Its id, or -1 if there is none
+     */
+    int findOpen(String patronId, String isbn) {
+        for (int id = newestOf(patronId); id >= 0; id = previous[id]) {
+            if (returnDays[id] == OPEN && books[id].getIsbn().equals(isbn)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Number of transactions recorded for the patron
+     */
+    int count(String patronId) {
+        int id = newestOf(patronId);
+        return id < 0 ? 0 : position[id] + 1;
+    }
+
+    /**
+     * Ids of one page of a patron's transactions, newest first.
+     * Seeks to the offset along the jump pointers, so the cost is O(log offset + limit).
+     */
+    int[] page(String patronId, int offset, int limit) {
+        int available = Math.max(0, count(patronId) - offset);
+        int[] page = new int[Math.min(limit, available)];
+        if (page.length == 0) {
+            return page;
+        }
+        int id = newestOf(patronId);
+        int target = position[id] - offset;
+        while (position[id] > target) {
+            id = position[jump[id]] >= target ? jump[id] : previous[id];
+        }
+        for (int n = 0; n < page.length; n++) {
+            page[n] = id;
+            id = previous[id];
+        }
+        return page;
+    }
+
+    void setDueDay(int id, int dueDay) {
+        dueDays[id] = dueDay;
+    }
+
+    void setReturnDay(int id, int returnDay) {
+        returnDays[id] = returnDay;
+    }
+
+    int copy(int id) {
+        return copies[id];
+    }
+
+    Checkout.LoanRecord record(int id) {
+        return new Checkout.LoanRecord(books[id], checkoutDays[id], dueDays[id], returnDays[id]);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return books.length;
+    }
+
+    /**
+     * Heap used by the per-patron chain (the link, position and jump columns), for
+     * comparison with PatronHistoryIndex.
+     */
+    long chainBytes() {
+        return (long) size * 3 * Integer.BYTES;
+    }
+
+    private int newestOf(String patronId) {
+        int id = newest.get(patronId);
+        return id == StringIntMap.NONE ? -1 : id;
+    }
+
+    private void grow(int rows) {
+        books = Arrays.copyOf(books, rows);
+        checkoutDays = Arrays.copyOf(checkoutDays, rows);
+        dueDays = Arrays.copyOf(dueDays, rows);
+        returnDays = Arrays.copyOf(returnDays, rows);
+        copies = Arrays.copyOf(copies, rows);
+        previous = Arrays.copyOf(previous, rows);
+        position = Arrays.copyOf(position, rows);
+        jump = Arrays.copyOf(jump, rows);
+    }
+}
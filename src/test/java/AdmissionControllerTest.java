@@ -0,0 +1,209 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for admission control and load shedding in front of Checkout.
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    @DisplayName("Guarded checkout returns the Checkout codes")
+    public void testGuardedOperations() {
+        Checkout checkout = new Checkout();
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 1);
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.STUDENT);
+        checkout.addBook(book);
+        checkout.registerPatron(patron);
+        AdmissionController admission = new AdmissionController(checkout);
+
+        assertEquals(0.0, admission.checkoutBook(AdmissionController.RequestClass.KIOSK, book, patron), 0.01);
+        assertEquals(0.0, admission.returnBook(AdmissionController.RequestClass.DESK, book.getIsbn(), patron), 0.01);
+        assertEquals(1, admission.getAdmittedCount(AdmissionController.RequestClass.KIOSK));
+        assertEquals(0, admission.getRunning());
+    }
+
+    @Test
+    @DisplayName("Full queue rejects immediately with a retry hint")
+    public void testFastRejection() throws Exception {
+        AdmissionController admission = new AdmissionController(new Checkout(), 1, 1, 1_000);
+        admission.configureQueue(AdmissionController.RequestClass.KIOSK, 0, 1_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread holder = occupy(admission, AdmissionController.RequestClass.DESK, started, finish);
+        started.await();
+
+        long begin = System.nanoTime();
+        AdmissionRejectedException rejected = assertThrows(AdmissionRejectedException.class,
+                () -> admission.execute(AdmissionController.RequestClass.KIOSK, () -> 1));
+        assertTrue(System.nanoTime() - begin < 50_000_000L, "rejection should not wait");
+        assertEquals(AdmissionController.RequestClass.KIOSK, rejected.getRequestClass());
+        assertTrue(rejected.getRetryAfterMillis() >= 1);
+        assertEquals(1, admission.getRejectedCount(AdmissionController.RequestClass.KIOSK));
+
+        // Queued requests that wait too long are shed as well
+        admission.configureQueue(AdmissionController.RequestClass.BATCH, 4, 20);
+        assertThrows(AdmissionRejectedException.class,
+                () -> admission.execute(AdmissionController.RequestClass.BATCH, () -> 1));
+        assertEquals(0, admission.getQueued(AdmissionController.RequestClass.BATCH));
+
+        finish.countDown();
+        holder.join();
+    }
+
+    @Test
+    @DisplayName("Queued desk requests are dispatched before earlier kiosk requests")
+    public void testPriorityDispatch() throws Exception {
+        AdmissionController admission = new AdmissionController(new Checkout(), 1, 1, 1_000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        Thread holder = occupy(admission, AdmissionController.RequestClass.DESK, started, finish);
+        started.await();
+
+        List<String> order = java.util.Collections.synchronizedList(new ArrayList<>());
+        Thread kiosk = new Thread(() -> admission.execute(AdmissionController.RequestClass.KIOSK, () -> order.add("kiosk")));
+        kiosk.start();
+        awaitQueued(admission, AdmissionController.RequestClass.KIOSK);
+        Thread desk = new Thread(() -> admission.execute(AdmissionController.RequestClass.DESK, () -> order.add("desk")));
+        desk.start();
+        awaitQueued(admission, AdmissionController.RequestClass.DESK);
+
+        finish.countDown();
+        holder.join();
+        kiosk.join();
+        desk.join();
+        assertEquals(Arrays.asList("desk", "kiosk"), order);
+    }
+
+    @Test
+    @DisplayName("Limit backs off on slow requests and grows again on fast ones")
+    public void testAdaptiveLimit() {
+        AdmissionController admission = new AdmissionController(new Checkout(), 20, 40, 1);
+        for (int i = 0; i < 10; i++) {
+            admission.execute(AdmissionController.RequestClass.DESK, () -> sleep(3));
+        }
+        int reduced = admission.getLimit();
+        assertTrue(reduced < 20, "limit after slow requests: " + reduced);
+
+        for (int i = 0; i < 2_000; i++) {
+            admission.execute(AdmissionController.RequestClass.DESK, () -> 1);
+        }
+        assertTrue(admission.getLimit() > reduced, "limit after fast requests: " + admission.getLimit());
+        assertTrue(admission.getLimit() <= 40);
+    }
+
+    @Test
+    @DisplayName("Under a kiosk flood desk requests are all admitted while kiosks are shed")
+    public void testOverloadShedsKiosks() throws Exception {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 10; i++) {
+            checkout.addBook(new Book(String.format("978%010d", i), "Title", "Author", Book.BookType.FICTION, 1_000));
+        }
+        AdmissionController admission = new AdmissionController(checkout, 8, 64, 5);
+        admission.configureQueue(AdmissionController.RequestClass.KIOSK, 8, 20);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger kioskRejected = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 32; t++) {
+            Patron patron = register(checkout, "K-" + t);
+            final int id = t;
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    try {
+                        admission.execute(AdmissionController.RequestClass.KIOSK, () -> circulate(checkout, patron, id));
+                    } catch (AdmissionRejectedException e) {
+                        kioskRejected.incrementAndGet();
+                        sleep(Math.min(e.getRetryAfterMillis(), 10));
+                    }
+                }
+            }));
+        }
+        AtomicInteger deskServed = new AtomicInteger();
+        for (int t = 0; t < 2; t++) {
+            Patron patron = register(checkout, "D-" + t);
+            final int id = t;
+            threads.add(new Thread(() -> {
+                while (running.get()) {
+                    admission.execute(AdmissionController.RequestClass.DESK, () -> circulate(checkout, patron, id));
+                    deskServed.incrementAndGet();
+                    sleep(2);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(2_000);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Counts rather than latencies, which depend on how busy the machine running the test is
+        assertTrue(deskServed.get() > 100, "desk requests served: " + deskServed.get());
+        assertEquals(deskServed.get(), admission.getAdmittedCount(AdmissionController.RequestClass.DESK));
+        assertEquals(0, admission.getRejectedCount(AdmissionController.RequestClass.DESK));
+        assertTrue(kioskRejected.get() > 0);
+        assertEquals(kioskRejected.get(), admission.getRejectedCount(AdmissionController.RequestClass.KIOSK));
+        assertTrue(admission.getAdmittedCount(AdmissionController.RequestClass.KIOSK) > 0);
+        assertEquals(0, admission.getRunning());
+    }
+
+    /**
+     * One checkout/return cycle plus about half a millisecond of CPU work.
+     */
+    private static double circulate(Checkout checkout, Patron patron, int i) {
+        long until = System.nanoTime() + 500_000L;
+        long spin = 0;
+        while (System.nanoTime() < until) {
+            spin++;
+        }
+        String isbn = String.format("978%010d", i % 10);
+        checkout.checkoutBook(checkout.getInventory().get(isbn), patron);
+        return checkout.returnBook(isbn, patron) + (spin < 0 ? 1 : 0);
+    }
+
+    private static Patron register(Checkout checkout, String id) {
+        Patron patron = new Patron(id, "Patron", "p@example.com", Patron.PatronType.STAFF);
+        checkout.registerPatron(patron);
+        return patron;
+    }
+
+    private static Thread occupy(AdmissionController admission, AdmissionController.RequestClass requestClass,
+                                 CountDownLatch started, CountDownLatch finish) {
+        Thread thread = new Thread(() -> admission.execute(requestClass, () -> {
+            started.countDown();
+            try {
+                return finish.await(10, java.util.concurrent.TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }));
+        thread.start();
+        return thread;
+    }
+
+    private static void awaitQueued(AdmissionController admission, AdmissionController.RequestClass requestClass) {
+        while (admission.getQueued(requestClass) == 0) {
+            Thread.yield();
+        }
+    }
+
+    private static int sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,200 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for per-copy state tracking in Book.
+ * Covers allocation order, returns of specific copies, lost/repair states,
+ * titles larger than one bitset word and concurrent allocation.
+ */
+public class BookCopyTrackingTest {
+
+    @Test
+    @DisplayName("Copies are handed out lowest index first and returned individually")
+    public void testLowestCopyAllocation() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 3);
+
+        assertEquals(0, book.checkoutCopy());
+        assertEquals(1, book.checkoutCopy());
+        assertEquals(1, book.getAvailableCopies());
+
+        assertTrue(book.returnCopy(0));
+        assertFalse(book.returnCopy(0), "A copy already on the shelf cannot be returned twice");
+        assertEquals(Book.CopyState.AVAILABLE, book.getCopyState(0));
+        assertEquals(Book.CopyState.OUT, book.getCopyState(1));
+        assertEquals(0, book.checkoutCopy(), "Freed copy 0 is the lowest available again");
+    }
+
+    @Test
+    @DisplayName("Returns never push available copies past the total")
+    public void testReturnIsCappedAtTotalCopies() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, 250);
+
+        book.checkout();
+        book.returnBook();
+        book.returnBook();
+
+        assertEquals(250, book.getAvailableCopies());
+        assertTrue(book.isAvailable());
+    }
+
+    @Test
+    @DisplayName("Lost and in-repair copies are not available")
+    public void testLostAndRepairStates() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.NONFICTION, 2);
+
+        assertTrue(book.markCopyLost(0));
+        assertTrue(book.sendCopyToRepair(1));
+        assertFalse(book.isAvailable());
+        assertEquals(-1, book.checkoutCopy());
+        assertEquals(1, book.getCopyCount(Book.CopyState.LOST));
+        assertEquals(1, book.getCopyCount(Book.CopyState.IN_REPAIR));
+
+        assertTrue(book.restoreCopy(1));
+        assertEquals(1, book.checkoutCopy());
+    }
+
+    @Test
+    @DisplayName("setAvailableCopies marks the remaining copies as out")
+    public void testSetAvailableCopies() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 100);
+
+        book.setAvailableCopies(40);
+
+        assertEquals(40, book.getAvailableCopies());
+        assertEquals(60, book.getCopyCount(Book.CopyState.OUT));
+        assertEquals(Book.CopyState.AVAILABLE, book.getCopyState(39));
+        assertEquals(Book.CopyState.OUT, book.getCopyState(40));
+
+        assertThrows(IllegalArgumentException.class, () -> book.setAvailableCopies(101));
+        assertThrows(IllegalArgumentException.class, () -> book.setAvailableCopies(-1));
+        assertEquals(40, book.getAvailableCopies());
+    }
+
+    @Test
+    @DisplayName("Concurrent checkouts never hand out the same copy twice")
+    public void testConcurrentAllocationIsUnique() throws Exception {
+        int copies = 5000;
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, copies);
+        Set<Integer> claimed = ConcurrentHashMap.newKeySet();
+        AtomicInteger claims = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                int copy;
+                while ((copy = book.checkoutCopy()) >= 0) {
+                    claimed.add(copy);
+                    claims.incrementAndGet();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(copies, claims.get(), "every copy is handed out exactly once");
+        assertEquals(copies, claimed.size());
+        assertEquals(0, book.getAvailableCopies());
+    }
+
+    @Test
+    @DisplayName("Lowest free copy and counts match a reference model across many words")
+    public void testLowestFreeCopyAcrossWords() {
+        int copies = 5000;
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, copies);
+        TreeSet<Integer> free = new TreeSet<>();
+        Set<Integer> repair = new TreeSet<>();
+        for (int i = 0; i < copies; i++) {
+            free.add(i);
+        }
+        Random random = new Random(26);
+        for (int i = 0; i < 100_000; i++) {
+            int action = random.nextInt(10);
+            int copy = random.nextInt(copies);
+            if (action < 5) {
+                assertEquals(free.isEmpty() ? -1 : free.pollFirst(), book.checkoutCopy());
+            } else if (action < 8) {
+                boolean out = !free.contains(copy) && !repair.contains(copy);
+                assertEquals(out, book.returnCopy(copy));
+                if (out) {
+                    free.add(copy);
+                }
+            } else if (action == 8) {
+                assertEquals(free.remove(copy), book.sendCopyToRepair(copy));
+                if (book.getCopyState(copy) == Book.CopyState.IN_REPAIR) {
+                    repair.add(copy);
+                }
+            } else if (random.nextInt(200) == 0) {
+                int available = random.nextInt(copies + 1);
+                book.setAvailableCopies(available);
+                free.clear();
+                repair.clear();
+                for (int c = 0; c < available; c++) {
+                    free.add(c);
+                }
+            } else {
+                assertEquals(repair.remove(copy), book.restoreCopy(copy));
+                if (book.getCopyState(copy) == Book.CopyState.AVAILABLE) {
+                    free.add(copy);
+                }
+            }
+            assertEquals(free.size(), book.getAvailableCopies());
+        }
+        assertEquals(free.size(), book.getCopyCount(Book.CopyState.AVAILABLE));
+    }
+
+    @Test
+    @DisplayName("Concurrent checkouts and returns leave counts equal to the copy states")
+    public void testConcurrentChurnKeepsCounts() throws Exception {
+        int copies = 300;
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, copies);
+        AtomicInteger bad = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int n = 0; n < 50_000; n++) {
+                    int copy = book.checkoutCopy();
+                    int available = book.getAvailableCopies();
+                    if (copy < 0 || available < 0 || available >= copies || !book.returnCopy(copy)) {
+                        bad.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(0, bad.get());
+        assertEquals(copies, book.getAvailableCopies());
+        assertEquals(copies, book.getCopyCount(Book.CopyState.AVAILABLE));
+        assertEquals(0, book.checkoutCopy(), "every word is marked free again");
+    }
+
+    @Test
+    @DisplayName("Checkout returns the patron's own copy on return")
+    public void testCheckoutReturnsSameCopy() {
+        Checkout checkout = new Checkout();
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 2);
+        Patron first = new Patron("P-00001", "First", "a@example.com", Patron.PatronType.STUDENT);
+        Patron second = new Patron("P-00002", "Second", "b@example.com", Patron.PatronType.STUDENT);
+        checkout.addBook(book);
+
+        assertEquals(0.0, checkout.checkoutBook(book, first), 0.01);
+        assertEquals(0.0, checkout.checkoutBook(book, second), 0.01);
+        checkout.returnBook(book.getIsbn(), second);
+
+        assertEquals(Book.CopyState.OUT, book.getCopyState(0));
+        assertEquals(Book.CopyState.AVAILABLE, book.getCopyState(1));
+    }
+}
@@ -0,0 +1,234 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for allocation-free checkout, renewal and return.
+ */
+public class CheckoutAllocationTest {
+    private static final int BOOKS = 16;
+    private static final int PATRONS = 8;
+
+    @Test
+    @DisplayName("Steady-state checkout, renewal and return allocate zero bytes per operation")
+    public void testZeroAllocation() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Checkout checkout = library();
+        checkout.enableAllocationFreeMode(200_000);
+        Book[] books = checkout.getInventory().values().toArray(new Book[0]);
+        Patron[] patrons = checkout.getPatrons().values().toArray(new Patron[0]);
+
+        double sink = circulate(checkout, books, patrons, 30_000); // warm up the JIT and the loan tables
+        long calibration = threads.getCurrentThreadAllocatedBytes();
+        calibration = threads.getCurrentThreadAllocatedBytes() - calibration;
+
+        int cycles = 20_000;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        sink += circulate(checkout, books, patrons, cycles);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - calibration;
+
+        long operations = cycles * 3L;
+        assertTrue(sink > 0);
+        // A fixed total, not a per-operation average: one byte per operation would already be
+        // 60,000 bytes, while a late C2 compilation can leave a one-off allocation of a few hundred
+        assertTrue(allocated <= 1_024, allocated + " bytes over " + operations + " operations");
+        assertEquals(0, checkout.getInventory().values().stream()
+                .mapToInt(b -> b.getTotalCopies() - b.getAvailableCopies()).sum());
+    }
+
+    @Test
+    @DisplayName("Allocation-free mode returns the same codes, fines, loans and history as the default mode")
+    public void testSameResultsAsDefaultMode() {
+        Checkout regular = library();
+        Checkout allocationFree = library();
+        allocationFree.enableAllocationFreeMode(16);
+        assertFalse(regular.isAllocationFree());
+        assertTrue(allocationFree.isAllocationFree());
+
+        List<String> regularResults = script(regular);
+        List<String> allocationFreeResults = script(allocationFree);
+        assertEquals(regularResults, allocationFreeResults);
+
+        for (String patronId : regular.getPatrons().keySet()) {
+            Patron a = regular.getPatrons().get(patronId);
+            Patron b = allocationFree.getPatrons().get(patronId);
+            assertEquals(a.getCheckedOutBooks(), b.getCheckedOutBooks());
+            assertEquals(a.getFineBalance(), b.getFineBalance(), 0.001);
+            assertEquals(regular.getBorrowingCount(patronId), allocationFree.getBorrowingCount(patronId));
+            assertEquals(describe(regular.getBorrowingHistory(patronId, 0, 1_000)),
+                    describe(allocationFree.getBorrowingHistory(patronId, 0, 1_000)));
+            assertEquals(describe(regular.getBorrowingHistory(patronId, 3, 4)),
+                    describe(allocationFree.getBorrowingHistory(patronId, 3, 4)));
+        }
+        for (Book book : regular.getInventory().values()) {
+            assertEquals(book.getAvailableCopies(),
+                    allocationFree.getInventory().get(book.getIsbn()).getAvailableCopies());
+        }
+        // Reminder runs see the same open loans although circulation skipped the index
+        assertEquals(regular.dueDateIndex().size(), allocationFree.dueDateIndex().size());
+        assertTrue(allocationFree.dueDateIndex().size() > 0);
+    }
+
+    @Test
+    @DisplayName("Mode can only be enabled before the first transaction")
+    public void testEnableBeforeTraffic() {
+        Checkout checkout = library();
+        Patron patron = checkout.getPatrons().values().iterator().next();
+        checkout.checkoutBook(checkout.getInventory().values().iterator().next(), patron);
+        assertThrows(IllegalStateException.class, () -> checkout.enableAllocationFreeMode(100));
+        assertThrows(IllegalArgumentException.class, () -> library().enableAllocationFreeMode(-1));
+    }
+
+    @Test
+    @DisplayName("Checked-out books view behaves like the map it replaces")
+    public void testCheckedOutBooksView() {
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.FACULTY);
+        Map<String, LocalDate> expected = new HashMap<>();
+        Map<String, LocalDate> view = patron.getCheckedOutBooks();
+        Random random = new Random(7);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 20_000; i++) {
+            String isbn = "978" + random.nextInt(64); // few keys, so probe runs collide and shift
+            int action = random.nextInt(4);
+            if (action == 0) {
+                assertEquals(expected.remove(isbn), view.remove(isbn));
+            } else if (action == 1) {
+                expected.remove(isbn);
+                patron.removeCheckedOutBook(isbn);
+            } else {
+                LocalDate due = today.plusDays(random.nextInt(90) - 30);
+                expected.put(isbn, due);
+                patron.addCheckedOutBook(isbn, due);
+            }
+            assertEquals(expected.size(), patron.getCheckoutCount());
+            assertEquals(expected.get(isbn), view.get(isbn));
+            assertEquals(expected.containsKey(isbn), patron.hasBookCheckedOut(isbn));
+        }
+        assertEquals(expected, view);
+        assertEquals(expected, new HashMap<>(view));
+        assertNull(view.get(null));
+        assertFalse(patron.hasBookCheckedOut(null));
+
+        for (Iterator<String> it = view.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().hashCode() % 2 == 0) {
+                it.remove();
+            }
+        }
+        expected.keySet().removeIf(isbn -> isbn.hashCode() % 2 == 0);
+        assertEquals(expected, view);
+
+        // Entries write through, nulls are rejected and out-of-range dates do not truncate
+        for (Map.Entry<String, LocalDate> loan : view.entrySet()) {
+            loan.setValue(today.plusDays(100));
+        }
+        expected.replaceAll((isbn, due) -> today.plusDays(100));
+        assertEquals(expected, view);
+        assertThrows(NullPointerException.class, () -> view.put("978x", null));
+        assertThrows(NullPointerException.class, () -> patron.addCheckedOutBook(null, today));
+        assertThrows(IllegalArgumentException.class,
+                () -> patron.addCheckedOutBook("978x", LocalDate.ofEpochDay(Integer.MIN_VALUE)));
+        assertThrows(IllegalArgumentException.class,
+                () -> patron.addCheckedOutBook("978x", LocalDate.ofEpochDay(Integer.MAX_VALUE + 1L)));
+        assertFalse(patron.hasBookCheckedOut("978x"));
+        LocalDate far = LocalDate.ofEpochDay(Integer.MAX_VALUE);
+        patron.addCheckedOutBook("978x", far);
+        assertEquals(far, view.get("978x"));
+        assertEquals(expected.size() + 1, view.size());
+    }
+
+    @Test
+    @DisplayName("Checked-out books iterators fail fast on outside changes")
+    public void testCheckedOutBooksIteratorFailsFast() {
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.FACULTY);
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 5; i++) {
+            patron.addCheckedOutBook("978" + i, today);
+        }
+        Iterator<Map.Entry<String, LocalDate>> it = patron.getCheckedOutBooks().entrySet().iterator();
+        Map.Entry<String, LocalDate> first = it.next();
+        it.remove();
+        it.next(); // the iterator's own removal is not a concurrent change
+        patron.getCheckedOutBooks().put(first.getKey(), today.plusDays(1)); // a new loan
+        assertThrows(ConcurrentModificationException.class, it::next);
+
+        Iterator<Map.Entry<String, LocalDate>> stale = patron.getCheckedOutBooks().entrySet().iterator();
+        Map.Entry<String, LocalDate> entry = stale.next();
+        patron.removeCheckedOutBook(entry.getKey());
+        assertThrows(ConcurrentModificationException.class, stale::remove);
+        assertThrows(IllegalStateException.class, () -> entry.setValue(today));
+    }
+
+    /**
+     * Checkout, renewal and return for every book and patron in turn.
+     */
+    private static double circulate(Checkout checkout, Book[] books, Patron[] patrons, int cycles) {
+        double sum = 0;
+        for (int i = 0; i < cycles; i++) {
+            Book book = books[i % books.length];
+            Patron patron = patrons[i % patrons.length];
+            sum += checkout.checkoutBook(book, patron) + 1;
+            sum += checkout.checkoutBook(book, patron);
+            sum += checkout.returnBook(book.getIsbn(), patron);
+        }
+        return sum;
+    }
+
+    private static List<String> script(Checkout checkout) {
+        List<String> results = new ArrayList<>();
+        Random random = new Random(42);
+        List<Book> books = new ArrayList<>(checkout.getInventory().values());
+        List<Patron> patrons = new ArrayList<>(checkout.getPatrons().values());
+        books.sort((a, b) -> a.getIsbn().compareTo(b.getIsbn()));
+        patrons.sort((a, b) -> a.getPatronId().compareTo(b.getPatronId()));
+        for (int i = 0; i < 2_000; i++) {
+            Book book = books.get(random.nextInt(books.size()));
+            Patron patron = patrons.get(random.nextInt(patrons.size()));
+            if (random.nextInt(3) == 0) {
+                results.add("return " + checkout.returnBook(book.getIsbn(), patron));
+            } else {
+                results.add("checkout " + checkout.checkoutBook(book, patron));
+            }
+            if (i % 250 == 0) {
+                // Push one loan into the past so the next return of it is fined
+                for (Map.Entry<String, LocalDate> loan : patron.getCheckedOutBooks().entrySet()) {
+                    patron.addCheckedOutBook(loan.getKey(), loan.getValue().minusDays(45));
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private static List<String> describe(List<Checkout.LoanRecord> records) {
+        List<String> lines = new ArrayList<>();
+        for (Checkout.LoanRecord r : records) {
+            lines.add(r.getIsbn() + " " + r.getCheckoutDate() + " " + r.getDueDate() + " " + r.getReturnDate());
+        }
+        return lines;
+    }
+
+    private static Checkout library() {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < BOOKS; i++) {
+            checkout.addBook(new Book(String.format("978%010d", i), "Title " + i, "Author",
+                    i % 4 == 0 ? Book.BookType.TEXTBOOK : Book.BookType.FICTION, 8));
+        }
+        for (int i = 0; i < PATRONS; i++) {
+            checkout.registerPatron(new Patron(String.format("P-%05d", i), "Patron", "p@example.com",
+                    Patron.PatronType.STAFF));
+        }
+        return checkout;
+    }
+}
@@ -0,0 +1,153 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the CompletableFuture based checkout API.
+ * Async results must match the synchronous return codes exactly.
+ */
+public class CheckoutAsyncTest {
+
+    private Checkout checkout;
+
+    @BeforeEach
+    public void setUp() {
+        checkout = new Checkout();
+        checkout.startAsync(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        checkout.shutdownAsync();
+    }
+
+    @Test
+    @DisplayName("Async checkout, renewal and return produce the synchronous codes")
+    public void testAsyncCodesMatchSync() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 1);
+        Book reference = new Book("9780123456789", "Atlas", "Author", Book.BookType.REFERENCE, 1);
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.STUDENT);
+        checkout.addBook(book);
+        checkout.addBook(reference);
+        checkout.registerPatron(patron);
+
+        assertEquals(0.0, checkout.checkoutBookAsync(book, patron).join(), 0.01);
+        assertEquals(0.1, checkout.checkoutBookAsync(book, patron).join(), 0.01);
+        assertEquals(5.0, checkout.checkoutBookAsync(reference, patron).join(), 0.01);
+        assertEquals(2.1, checkout.checkoutBookAsync(null, patron).join(), 0.01);
+        assertEquals(3.1, checkout.checkoutBookAsync(book, null).join(), 0.01);
+        assertEquals(0.0, checkout.returnBookAsync(book.getIsbn(), patron).join(), 0.01);
+        assertEquals(-1.0, checkout.returnBookAsync(book.getIsbn(), patron).join(), 0.01);
+        assertEquals(1, book.getAvailableCopies());
+    }
+
+    @Test
+    @DisplayName("Many patrons checking out concurrently leave inventory consistent")
+    public void testConcurrentPatronsConverge() {
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, 150);
+        checkout.addBook(book);
+
+        List<Patron> patrons = new ArrayList<>();
+        List<CompletableFuture<Double>> results = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Patron patron = new Patron("P-" + i, "Patron " + i, "p@example.com", Patron.PatronType.PUBLIC);
+            checkout.registerPatron(patron);
+            patrons.add(patron);
+            results.add(checkout.checkoutBookAsync(book, patron));
+        }
+
+        long successes = results.stream().filter(f -> f.join() == 0.0).count();
+        long unavailable = results.stream().filter(f -> f.join() == 2.0).count();
+        assertEquals(150, successes);
+        assertEquals(50, unavailable);
+        assertEquals(0, book.getAvailableCopies());
+
+        List<CompletableFuture<Double>> returns = new ArrayList<>();
+        for (Patron patron : patrons) {
+            returns.add(checkout.returnBookAsync(book.getIsbn(), patron));
+        }
+        returns.forEach(CompletableFuture::join);
+        assertEquals(150, book.getAvailableCopies());
+    }
+
+    @Test
+    @DisplayName("Requests racing with shutdown are either served or rejected, never left pending")
+    public void testShutdownRace() throws Exception {
+        for (int round = 0; round < 50; round++) {
+            CirculationEventLoop loop = new CirculationEventLoop(new Checkout(), round);
+            List<CompletableFuture<Double>> futures = java.util.Collections.synchronizedList(new ArrayList<>());
+            AtomicBoolean stop = new AtomicBoolean();
+            List<Thread> submitters = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                submitters.add(new Thread(() -> {
+                    while (!stop.get()) {
+                        CompletableFuture<Double> f = loop.submitReturn("0123456789", null);
+                        futures.add(f);
+                        if (f.isCompletedExceptionally()) {
+                            return;
+                        }
+                    }
+                }));
+            }
+            submitters.forEach(Thread::start);
+            Thread.sleep(1);
+            loop.shutdown();
+            stop.set(true);
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+            synchronized (futures) {
+                for (CompletableFuture<Double> f : futures) {
+                    assertTrue(f.isDone(), "request left pending after shutdown");
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("A failed history write keeps the applied results, is reported and keeps the loop running")
+    public void testRecordFailureKeepsLoopAlive() {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        Checkout failing = new Checkout() {
+            @Override
+            void recordTransactions(List<Transaction> batch) {
+                if (fail.getAndSet(false)) {
+                    throw new IllegalStateException("history unavailable");
+                }
+                super.recordTransactions(batch);
+            }
+        };
+        failing.startAsync(1);
+        try {
+            Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 2);
+            Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.STUDENT);
+            failing.addBook(book);
+            failing.registerPatron(patron);
+
+            // The checkout happened although its history entry was lost, so it is not reported as failed
+            assertEquals(0.0, failing.checkoutBookAsync(book, patron).join(), 0.01);
+            assertEquals(1, book.getAvailableCopies());
+            assertTrue(patron.hasBookCheckedOut(book.getIsbn()));
+            assertEquals(1, failing.getUnrecordedTransactionCount());
+            assertEquals("history unavailable", failing.getHistoryFailure().getMessage());
+
+            // The return still finds the loan, and the next batch is recorded normally
+            assertEquals(0.0, failing.returnBookAsync(book.getIsbn(), patron).join(), 0.01);
+            assertEquals(2, book.getAvailableCopies());
+            assertEquals(0, failing.getBorrowingCount(patron.getPatronId()));
+            assertEquals(0.0, failing.checkoutBookAsync(book, patron).join(), 0.01);
+            assertEquals(1, failing.getBorrowingCount(patron.getPatronId()));
+            assertEquals(1, failing.getUnrecordedTransactionCount());
+        } finally {
+            failing.shutdownAsync();
+        }
+    }
+}
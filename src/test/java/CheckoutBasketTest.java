@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for basket checkout, bulk return and renew-all.
+ */
+public class CheckoutBasketTest {
+
+    @Test
+    @DisplayName("Basket codes and side effects match checking out item by item")
+    public void testBasketMatchesSingleItems() {
+        Checkout single = library();
+        Checkout basket = library();
+        Patron singlePatron = patron(single, Patron.PatronType.CHILD);
+        Patron basketPatron = patron(basket, Patron.PatronType.CHILD);
+
+        // CHILD limit is 3: null, reference, success, duplicate (renewal), unavailable, success x2, limit
+        int[] items = {-1, 0, 1, 1, 2, 3, 4, 5};
+        double[] expected = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            expected[i] = single.checkoutBook(book(single, items[i]), singlePatron);
+        }
+        double[] codes = basket.checkoutBooks(books(basket, items), basketPatron);
+
+        assertArrayEquals(new double[] {2.1, 5.0, 1.1, 0.1, 2.0, 1.1, 1.1, 3.2}, expected, 0.0);
+        assertArrayEquals(expected, codes, 0.0);
+        assertEquals(singlePatron.getCheckedOutBooks(), basketPatron.getCheckedOutBooks());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(book(single, i).getAvailableCopies(), book(basket, i).getAvailableCopies());
+        }
+    }
+
+    @Test
+    @DisplayName("Ineligible patron gets the eligibility code for every item")
+    public void testIneligibleBasket() {
+        Checkout checkout = library();
+        Patron patron = patron(checkout, Patron.PatronType.STUDENT);
+        patron.setAccountSuspended(true);
+
+        assertArrayEquals(new double[] {3.0, 3.0}, checkout.checkoutBooks(books(checkout, new int[] {1, 3}), patron), 0.0);
+        assertArrayEquals(new double[] {3.1}, checkout.checkoutBooks(books(checkout, new int[] {1}), null), 0.0);
+        assertEquals(0, patron.getCheckoutCount());
+        assertEquals(0, checkout.checkoutBooks(new ArrayList<>(), patron).length);
+    }
+
+    @Test
+    @DisplayName("Bulk return puts back the borrowed copies and charges the same fines")
+    public void testBulkReturn() {
+        Checkout checkout = library();
+        Patron patron = patron(checkout, Patron.PatronType.FACULTY);
+        checkout.checkoutBooks(books(checkout, new int[] {1, 3, 4}), patron);
+        Book first = book(checkout, 1);
+        first.checkout(); // someone else takes copy 1 of the same title
+
+        patron.addCheckedOutBook(book(checkout, 4).getIsbn(), LocalDate.now().minusDays(5));
+        double[] fines = checkout.returnBooks(patron,
+                Arrays.asList(first.getIsbn(), book(checkout, 4).getIsbn(), first.getIsbn(), "0000000000"));
+
+        assertArrayEquals(new double[] {0.0, 1.25, -1.0, -1.0}, fines, 0.0);
+        assertEquals(Book.CopyState.AVAILABLE, first.getCopyState(0));
+        assertEquals(Book.CopyState.OUT, first.getCopyState(1));
+        assertEquals(1.25, patron.getFineBalance(), 0.001);
+        assertEquals(1, patron.getCheckoutCount());
+        assertArrayEquals(new double[] {-1.0}, checkout.returnBooks(null, Arrays.asList(first.getIsbn())), 0.0);
+    }
+
+    @Test
+    @DisplayName("Renew-all moves every due date and reports per-ISBN codes")
+    public void testRenewAll() {
+        Checkout checkout = library();
+        Patron patron = patron(checkout, Patron.PatronType.STUDENT);
+        checkout.checkoutBooks(books(checkout, new int[] {1, 3}), patron);
+        patron.addCheckedOutBook(book(checkout, 1).getIsbn(), LocalDate.now().plusDays(1));
+        patron.addCheckedOutBook("9999999999", LocalDate.now().plusDays(1));
+
+        Map<String, Double> codes = checkout.renewAll(patron);
+
+        assertEquals(3, codes.size());
+        assertEquals(0.1, codes.get(book(checkout, 1).getIsbn()), 0.0);
+        assertEquals(0.1, codes.get(book(checkout, 3).getIsbn()), 0.0);
+        assertEquals(2.1, codes.get("9999999999"), 0.0);
+        LocalDate due = LocalDate.now().plusDays(patron.getLoanPeriodDays());
+        assertEquals(due, patron.getCheckedOutBooks().get(book(checkout, 1).getIsbn()));
+
+        patron.addFine(20.0);
+        assertEquals(4.1, checkout.renewAll(patron).get(book(checkout, 3).getIsbn()), 0.0);
+        assertTrue(checkout.renewAll(null).isEmpty());
+    }
+
+    private static Checkout library() {
+        Checkout checkout = new Checkout();
+        checkout.addBook(new Book("9780000000000", "Atlas", "Author", Book.BookType.REFERENCE, 2));
+        checkout.addBook(new Book("9780000000001", "Novel", "Author", Book.BookType.FICTION, 2));
+        checkout.addBook(new Book("9780000000002", "Gone", "Author", Book.BookType.FICTION, 0));
+        checkout.addBook(new Book("9780000000003", "Primer", "Author", Book.BookType.TEXTBOOK, 5));
+        checkout.addBook(new Book("9780000000004", "Essays", "Author", Book.BookType.NONFICTION, 5));
+        checkout.addBook(new Book("9780000000005", "Poems", "Author", Book.BookType.FICTION, 5));
+        return checkout;
+    }
+
+    private static Patron patron(Checkout checkout, Patron.PatronType type) {
+        Patron patron = new Patron("P-1", "Patron", "p@example.com", type);
+        checkout.registerPatron(patron);
+        return patron;
+    }
+
+    private static Book book(Checkout checkout, int i) {
+        return i < 0 ? null : checkout.getInventory().get("978000000000" + i);
+    }
+
+    private static List<Book> books(Checkout checkout, int[] items) {
+        List<Book> books = new ArrayList<>();
+        for (int i : items) {
+            books.add(book(checkout, i));
+        }
+        return books;
+    }
+}
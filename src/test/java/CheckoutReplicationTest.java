@@ -0,0 +1,263 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a primary and a replica over a loopback socket under concurrent load
+ * and verifies the replica converges to the primary's state.
+ */
+public class CheckoutReplicationTest {
+
+    private static final int BOOKS = 20;
+    private static final int THREADS = 6;
+    private static final int PATRONS_PER_THREAD = 10;
+    private static final int OPS_PER_THREAD = 3_000;
+
+    @Test
+    @DisplayName("Replica converges to the primary after concurrent circulation")
+    public void testReplicaConverges() throws Exception {
+        Checkout primary = new Checkout();
+        for (int b = 0; b < BOOKS; b++) {
+            primary.addBook(new Book(isbn(b), "Title " + b, "Author", Book.BookType.FICTION, 12));
+        }
+        // One overdue loan made outside checkoutBook, shipped in the snapshot
+        Patron late = new Patron("P-LATE", "Late", "late@example.com", Patron.PatronType.PUBLIC);
+        late.addCheckedOutBook(isbn(0), LocalDate.now().minusDays(10));
+        primary.getInventory().get(isbn(0)).setAvailableCopies(11);
+        primary.registerPatron(late);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+             Socket replicaSide = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+             Socket primarySide = server.accept()) {
+            ReplicationPublisher publisher = ReplicationPublisher.attach(primary, primarySide.getOutputStream());
+            CheckoutReplica replica = new CheckoutReplica(replicaSide.getInputStream());
+
+            // Copy changes made on the book directly are shipped once reported
+            Book damaged = primary.getInventory().get(isbn(1));
+            damaged.markCopyLost(11);
+            damaged.sendCopyToRepair(10);
+            primary.copiesChanged(damaged);
+
+            // Patrons registered after attach are shipped as events
+            List<Thread> clients = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                List<Patron> own = new ArrayList<>();
+                for (int p = 0; p < PATRONS_PER_THREAD; p++) {
+                    Patron patron = new Patron("P-" + t + "-" + p, "Patron", "p@example.com",
+                            Patron.PatronType.STUDENT);
+                    primary.registerPatron(patron);
+                    own.add(patron);
+                }
+                final long seed = t;
+                clients.add(new Thread(() -> circulate(primary, own, new Random(seed))));
+            }
+            clients.forEach(Thread::start);
+            for (Thread client : clients) {
+                client.join();
+            }
+            assertTrue(primary.returnBook(isbn(0), late) > 0.0, "overdue return charges a fine");
+
+            assertNull(publisher.getFailure());
+            assertTrue(replica.awaitSequence(publisher.getSequence(), 30, TimeUnit.SECONDS),
+                    "replica should catch up with the primary");
+            assertTrue(replica.getMaxLagNanos() > 0);
+
+            for (Book book : primary.getInventory().values()) {
+                assertEquals(book.getAvailableCopies(), replica.getAvailableCopies(book.getIsbn()), book.getIsbn());
+                for (int c = 0; c < book.getTotalCopies(); c++) {
+                    assertEquals(book.getCopyState(c), replica.getCopyState(book.getIsbn(), c));
+                }
+            }
+            for (Patron patron : primary.getPatrons().values()) {
+                assertEquals(patron.getCheckedOutBooks(), replica.getLoans(patron.getPatronId()));
+                assertEquals(patron.getFineBalance(), replica.getFineBalance(patron.getPatronId()), 0.0001);
+            }
+            assertEquals(primary.countBooksByType(Book.BookType.FICTION, true),
+                    replica.countBooksByType(Book.BookType.FICTION, true));
+            replica.close();
+        }
+    }
+
+    @Test
+    @DisplayName("A frame for an unknown patron or book stops the replica with a failure")
+    public void testUnknownIdsFailReplica() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ReplicationPublisher publisher = new ReplicationPublisher(stream);
+        Book book = new Book(isbn(0), "Title", "Author", Book.BookType.FICTION, 2);
+        publisher.bookAdded(book);
+        publisher.checkedOut(new Patron("P-GHOST", "Ghost", "g@example.com", Patron.PatronType.PUBLIC),
+                book, 0, LocalDate.now().plusDays(21));
+        publisher.close();
+        assertEquals(3, publisher.getShippedSequence()); // BOOK_ADDED, COPY_STATES, CHECKOUT
+
+        CheckoutReplica replica = new CheckoutReplica(new ByteArrayInputStream(stream.toByteArray()));
+        assertFalse(replica.awaitSequence(3, 10, TimeUnit.SECONDS));
+        assertNotNull(replica.getFailure());
+        assertTrue(replica.getFailure().getMessage().contains("P-GHOST"), replica.getFailure().getMessage());
+        assertEquals(2, replica.getAppliedSequence());
+        assertEquals(2, replica.getAvailableCopies(isbn(0)));
+    }
+
+    @Test
+    @DisplayName("The snapshot ships which copies are out, not just how many")
+    public void testSnapshotShipsCopyStates() throws Exception {
+        Checkout primary = new Checkout();
+        Book book = new Book(isbn(0), "Title", "Author", Book.BookType.FICTION, 3);
+        primary.addBook(book);
+        Patron holder = new Patron("P-1", "Holder", "h@example.com", Patron.PatronType.STUDENT);
+        Patron other = new Patron("P-2", "Other", "o@example.com", Patron.PatronType.STUDENT);
+        primary.registerPatron(holder);
+        primary.registerPatron(other);
+        primary.checkoutBook(book, other);
+        primary.checkoutBook(book, holder);
+        primary.returnBook(book.getIsbn(), other); // copy 1 stays out, copies 0 and 2 are free
+        assertEquals(Book.CopyState.OUT, book.getCopyState(1));
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ReplicationPublisher publisher = ReplicationPublisher.attach(primary, stream);
+        Patron third = new Patron("P-3", "Third", "t@example.com", Patron.PatronType.STUDENT);
+        primary.registerPatron(third);
+        primary.checkoutBook(book, other);
+        primary.checkoutBook(book, third);
+        publisher.close();
+        assertNull(publisher.getFailure());
+
+        CheckoutReplica replica = new CheckoutReplica(new ByteArrayInputStream(stream.toByteArray()));
+        assertTrue(replica.awaitSequence(publisher.getSequence(), 10, TimeUnit.SECONDS));
+        assertNull(replica.getFailure());
+        assertEquals(0, book.getAvailableCopies());
+        assertEquals(0, replica.getAvailableCopies(book.getIsbn()));
+        for (int c = 0; c < 3; c++) {
+            assertEquals(Book.CopyState.OUT, replica.getCopyState(book.getIsbn(), c));
+        }
+    }
+
+    @Test
+    @DisplayName("A checkout or return of a copy in the wrong state stops the replica")
+    public void testCopyMismatchFailsReplica() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ReplicationPublisher publisher = new ReplicationPublisher(stream);
+        Book book = new Book(isbn(0), "Title", "Author", Book.BookType.FICTION, 2);
+        Patron patron = new Patron("P-1", "Patron", "p@example.com", Patron.PatronType.STUDENT);
+        publisher.bookAdded(book);
+        publisher.patronRegistered(patron);
+        publisher.checkedOut(patron, book, 0, LocalDate.now().plusDays(30));
+        publisher.checkedOut(patron, book, 0, LocalDate.now().plusDays(30));
+        publisher.close();
+
+        CheckoutReplica replica = new CheckoutReplica(new ByteArrayInputStream(stream.toByteArray()));
+        assertFalse(replica.awaitSequence(5, 10, TimeUnit.SECONDS));
+        assertNotNull(replica.getFailure());
+        assertEquals(4, replica.getAppliedSequence());
+
+        stream = new ByteArrayOutputStream();
+        publisher = new ReplicationPublisher(stream);
+        publisher.bookAdded(book);
+        publisher.patronRegistered(patron);
+        publisher.returned(patron, book, 1);
+        publisher.close();
+        replica = new CheckoutReplica(new ByteArrayInputStream(stream.toByteArray()));
+        assertFalse(replica.awaitSequence(4, 10, TimeUnit.SECONDS));
+        assertTrue(replica.getFailure().getCause() == null
+                && replica.getFailure().getMessage().contains("AVAILABLE"), replica.getFailure().getMessage());
+        assertEquals(2, replica.getAvailableCopies(book.getIsbn()));
+    }
+
+    @Test
+    @DisplayName("Books and patrons without a type replicate and never fail the primary")
+    public void testNullTypes() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Checkout primary = new Checkout();
+        ReplicationPublisher publisher = ReplicationPublisher.attach(primary, stream);
+        Book book = new Book(isbn(0), "Title", "Author", null, 2);
+        Patron patron = new Patron("P-1", "Patron", "p@example.com", null);
+        primary.addBook(book);
+        primary.registerPatron(patron);
+        publisher.close();
+        assertNull(publisher.getFailure());
+
+        CheckoutReplica replica = new CheckoutReplica(new ByteArrayInputStream(stream.toByteArray()));
+        assertTrue(replica.awaitSequence(3, 10, TimeUnit.SECONDS));
+        assertEquals(2, replica.getAvailableCopies(book.getIsbn()));
+        assertEquals(0, replica.countBooksByType(Book.BookType.FICTION, false));
+        assertEquals(Collections.emptyMap(), replica.getLoans("P-1"));
+
+        // A frame that cannot be encoded drops the replica, not the registration
+        ReplicationPublisher dropped = ReplicationPublisher.attach(new Checkout(), new ByteArrayOutputStream());
+        Checkout other = new Checkout();
+        other.setCirculationListener(dropped);
+        other.registerPatron(new Patron(null, "No ID", "n@example.com", Patron.PatronType.STUDENT));
+        assertEquals(1, other.getPatrons().size());
+        assertNotNull(dropped.getFailure());
+        dropped.close();
+    }
+
+    @Test
+    @DisplayName("A replica that stops reading is dropped after the overflow timeout")
+    public void testOverflowDropsReplica() throws Exception {
+        CountDownLatch stuck = new CountDownLatch(1);
+        OutputStream blocked = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    stuck.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        ReplicationPublisher publisher = new ReplicationPublisher(blocked, 4, 50);
+        Checkout primary = new Checkout();
+        primary.setCirculationListener(publisher);
+        Book book = new Book(isbn(0), "Title", "Author", Book.BookType.FICTION, 1);
+        primary.addBook(book);
+        Patron patron = new Patron("P-1", "Patron", "p@example.com", Patron.PatronType.STUDENT);
+        primary.registerPatron(patron);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0.0, primary.checkoutBook(book, patron), 0.01);
+            assertEquals(0.0, primary.returnBook(book.getIsbn(), patron), 0.01);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+        assertNotNull(publisher.getFailure(), "the stuck replica is dropped");
+        assertTrue(elapsedMillis < 5_000, "circulation waited " + elapsedMillis + " ms");
+        assertTrue(publisher.getSequence() < 200);
+        stuck.countDown();
+        publisher.close();
+    }
+
+    private static void circulate(Checkout primary, List<Patron> patrons, Random random) {
+        for (int i = 0; i < OPS_PER_THREAD; i++) {
+            Patron patron = patrons.get(random.nextInt(patrons.size()));
+            String isbn = isbn(random.nextInt(BOOKS));
+            if (patron.hasBookCheckedOut(isbn) && random.nextInt(3) > 0) {
+                primary.returnBook(isbn, patron);
+            } else {
+                // Checkout, or renewal if the patron already has it
+                primary.checkoutBook(primary.getInventory().get(isbn), patron);
+            }
+        }
+    }
+
+    private static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+}
@@ -0,0 +1,533 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput and latency benchmarks for circulation operations.
+ * Not a JUnit test - run with {@code ./gradlew runBenchmark --args="<scenario>"}.
+ *
+ * Scenarios:
+ *   async - synchronous (externally locked) vs async event-loop checkout/return at high concurrency
+ *   bloom - ISBN lookup throughput of the inventory map alone and of findBook for mixed hit/miss workloads
+ *           (catalog size from -Dbench.titles, default 10M; needs a large heap, e.g. -Xmx8g)
+ *   basket - checkoutBooks/returnBooks versus a per-item loop for 1, 10 and 50 item baskets
+ *   admission - desk latency under a kiosk flood, with and without the AdmissionController
+ *   history - per-patron history index: heap per transaction, page and return latency
+ *   audit - full and incremental InventoryAuditor runs over -Dbench.patrons (default 1M) patrons
+ *   alloc - bytes allocated, throughput and GCs per checkout/renew/return, default vs allocation-free
+ */
+public class CirculationBenchmark {
+
+    private static final int THREADS = Integer.getInteger("bench.threads", 64);
+    private static final int OPS_PER_THREAD = Integer.getInteger("bench.ops", 20_000);
+
+    public static void main(String[] args) throws Exception {
+        String scenario = args.length > 0 ? args[0] : "all";
+        boolean all = scenario.equals("all");
+        if (all || scenario.equals("async")) {
+            asyncVersusSync();
+        }
+        if (all || scenario.equals("bloom")) {
+            bloomLookups();
+        }
+        if (all || scenario.equals("basket")) {
+            baskets();
+        }
+        if (all || scenario.equals("admission")) {
+            admission();
+        }
+        if (all || scenario.equals("history")) {
+            historyIndex();
+        }
+        if (all || scenario.equals("audit")) {
+            audit();
+        }
+        if (all || scenario.equals("alloc")) {
+            allocation();
+        }
+    }
+
+    // ---------------------------------------------------------------- async
+
+    private static void asyncVersusSync() throws Exception {
+        System.out.println("=== sync vs async checkout/return, " + THREADS + " threads ===");
+        for (int round = 0; round < 2; round++) {
+            // First round is JIT warm-up
+            Checkout syncCheckout = newLibrary();
+            LatencyResult sync = runClients(syncCheckout, (checkout, book, patron) -> {
+                synchronized (checkout) {
+                    checkout.checkoutBook(book, patron);
+                    checkout.returnBook(book.getIsbn(), patron);
+                }
+            });
+
+            Checkout asyncCheckout = newLibrary();
+            asyncCheckout.startAsync(Runtime.getRuntime().availableProcessors());
+            LatencyResult async = runClients(asyncCheckout, (checkout, book, patron) -> {
+                checkout.checkoutBookAsync(book, patron);
+                checkout.returnBookAsync(book.getIsbn(), patron).join();
+            });
+            asyncCheckout.shutdownAsync();
+
+            if (round > 0) {
+                sync.print("sync (locked)");
+                async.print("async loops");
+            }
+        }
+    }
+
+    /**
+     * One client operation against the library.
+     */
+    interface Operation {
+        void run(Checkout checkout, Book book, Patron patron) throws Exception;
+    }
+
+    private static Checkout newLibrary() {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 100; i++) {
+            checkout.addBook(new Book(isbn(i), "Title " + i, "Author", Book.BookType.FICTION, 2_000));
+        }
+        for (int t = 0; t < THREADS; t++) {
+            checkout.registerPatron(patron(t));
+        }
+        return checkout;
+    }
+
+    private static LatencyResult runClients(Checkout checkout, Operation op) throws Exception {
+        long[][] latencies = new long[THREADS][OPS_PER_THREAD];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int id = t;
+            Patron patron = checkout.getPatrons().get(patronId(t));
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        Book book = checkout.getInventory().get(isbn((id + i) % 100));
+                        long begin = System.nanoTime();
+                        op.run(checkout, book, patron);
+                        latencies[id][i] = System.nanoTime() - begin;
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new LatencyResult(System.nanoTime() - begin, latencies);
+    }
+
+    // ---------------------------------------------------------------- bloom
+
+    private static void bloomLookups() throws Exception {
+        int titles = Integer.getInteger("bench.titles", 10_000_000);
+        int queries = Integer.getInteger("bench.queries", 5_000_000);
+        int threads = Runtime.getRuntime().availableProcessors();
+        System.out.println("=== ISBN lookups, " + titles + " titles, " + queries + " queries, "
+                + threads + " threads ===");
+
+        Checkout checkout = new Checkout();
+        checkout.configureIsbnFilter(titles, Checkout.DEFAULT_ISBN_FILTER_FPP);
+        for (int i = 0; i < titles; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 1));
+        }
+
+        for (int hitPercent : new int[] {90, 75, 50, 25, 10}) {
+            for (int round = 0; round < 2; round++) {
+                // Fresh String instances per run, like ISBNs parsed from a feed (no cached hash)
+                double mapOnly = lookupRate(threads, queries(titles, queries, hitPercent),
+                        isbn -> checkout.getInventory().get(isbn));
+                double filtered = lookupRate(threads, queries(titles, queries, hitPercent), checkout::findBook);
+                if (round > 0) {
+                    System.out.printf("%3d%% hits   map only %12.0f lookups/s   findBook %12.0f lookups/s%n",
+                            hitPercent, mapOnly, filtered);
+                }
+            }
+        }
+    }
+
+    private static String[] queries(int titles, int count, int hitPercent) {
+        java.util.Random random = new java.util.Random(hitPercent);
+        String[] queries = new String[count];
+        for (int i = 0; i < count; i++) {
+            int n = random.nextInt(100) < hitPercent ? random.nextInt(titles) : titles + random.nextInt(titles);
+            queries[i] = new String(isbn(n).toCharArray());
+        }
+        return queries;
+    }
+
+    private static double lookupRate(int threads, String[] queries,
+                                     java.util.function.Function<String, Book> lookup) throws Exception {
+        Thread[] workers = new Thread[threads];
+        int[] found = new int[threads];
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = id; i < queries.length; i += threads) {
+                    if (lookup.apply(queries[i]) != null) {
+                        found[id]++;
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return queries.length / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    // ---------------------------------------------------------------- basket
+
+    private static void baskets() {
+        int items = Integer.getInteger("bench.items", 20_000);
+        System.out.println("=== basket checkout + return, " + items + " items per run ===");
+        System.out.println("(FACULTY limit is 20, so 50-item baskets get 3.2 past the 20th item)");
+        for (int size : new int[] {1, 10, 50}) {
+            for (int round = 0; round < 3; round++) {
+                double loop = basketRate(size, items, false);
+                double basket = basketRate(size, items, true);
+                if (round == 2) {
+                    System.out.printf("%2d items   per-item loop %10.0f items/s   basket %10.0f items/s%n",
+                            size, loop, basket);
+                }
+            }
+        }
+    }
+
+    private static double basketRate(int size, int items, boolean basket) {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 100; i++) {
+            checkout.addBook(new Book(isbn(i), "Title " + i, "Author", Book.BookType.FICTION, 1_000));
+        }
+        int baskets = items / size;
+        Patron[] patrons = new Patron[100];
+        for (int p = 0; p < patrons.length; p++) {
+            patrons[p] = patron(p);
+            checkout.registerPatron(patrons[p]);
+        }
+        List<Book> books = new ArrayList<>();
+        List<String> isbns = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            books.add(checkout.getInventory().get(isbn(i % 100)));
+            isbns.add(isbn(i % 100));
+        }
+
+        long begin = System.nanoTime();
+        for (int b = 0; b < baskets; b++) {
+            Patron patron = patrons[b % patrons.length];
+            if (basket) {
+                checkout.checkoutBooks(books, patron);
+                checkout.returnBooks(patron, isbns);
+            } else {
+                for (Book book : books) {
+                    checkout.checkoutBook(book, patron);
+                }
+                for (String isbn : isbns) {
+                    checkout.returnBook(isbn, patron);
+                }
+            }
+        }
+        return (double) baskets * size / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    // ---------------------------------------------------------------- admission
+
+    private static void admission() throws Exception {
+        int kiosks = Integer.getInteger("bench.kiosks", 64);
+        long millis = Long.getLong("bench.millis", 5_000);
+        System.out.println("=== desk latency, " + kiosks + " kiosk threads flooding, 2 desk threads ===");
+        for (boolean guarded : new boolean[] {false, true}) {
+            Checkout checkout = newLibrary();
+            AdmissionController admission = new AdmissionController(checkout);
+            admission.configureQueue(AdmissionController.RequestClass.KIOSK, 16, 50);
+            java.util.concurrent.atomic.AtomicBoolean running = new java.util.concurrent.atomic.AtomicBoolean(true);
+            java.util.concurrent.atomic.AtomicLong kioskDone = new java.util.concurrent.atomic.AtomicLong();
+            java.util.concurrent.atomic.AtomicLong kioskShed = new java.util.concurrent.atomic.AtomicLong();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < kiosks; t++) {
+                Patron patron = patron(THREADS + t);
+                checkout.registerPatron(patron);
+                final int id = t;
+                threads.add(new Thread(() -> {
+                    while (running.get()) {
+                        try {
+                            if (guarded) {
+                                admission.execute(AdmissionController.RequestClass.KIOSK,
+                                        () -> kioskWork(checkout, patron, id));
+                            } else {
+                                kioskWork(checkout, patron, id);
+                            }
+                            kioskDone.incrementAndGet();
+                        } catch (AdmissionRejectedException e) {
+                            kioskShed.incrementAndGet();
+                            pause(Math.min(e.getRetryAfterMillis(), 50));
+                        }
+                    }
+                }));
+            }
+            long[][] desk = new long[2][];
+            for (int t = 0; t < 2; t++) {
+                Patron patron = checkout.getPatrons().get(patronId(t));
+                final int id = t;
+                threads.add(new Thread(() -> {
+                    long[] latencies = new long[100_000];
+                    int n = 0;
+                    while (running.get() && n < latencies.length) {
+                        long begin = System.nanoTime();
+                        if (guarded) {
+                            admission.execute(AdmissionController.RequestClass.DESK,
+                                    () -> kioskWork(checkout, patron, id));
+                        } else {
+                            kioskWork(checkout, patron, id);
+                        }
+                        latencies[n++] = System.nanoTime() - begin;
+                        pause(5);
+                    }
+                    desk[id] = Arrays.copyOf(latencies, n);
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            Thread.sleep(millis);
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            new LatencyResult(millis * 1_000_000L, desk).print(guarded ? "desk, guarded" : "desk, unguarded");
+            System.out.printf("%-16s %12.0f ops/s   shed %d%s%n", "kiosk", kioskDone.get() / (millis / 1e3),
+                    kioskShed.get(), guarded ? "   final limit " + admission.getLimit() : "");
+        }
+    }
+
+    /**
+     * A kiosk transaction: checkout and return plus ~200us of CPU standing in for UI/session work.
+     */
+    private static double kioskWork(Checkout checkout, Patron patron, int i) {
+        long until = System.nanoTime() + 200_000L;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+        Book book = checkout.getInventory().get(isbn(i % 100));
+        checkout.checkoutBook(book, patron);
+        return checkout.returnBook(book.getIsbn(), patron);
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------------------------------------------------------------- history
+
+    private static void historyIndex() {
+        int transactions = Integer.getInteger("bench.transactions", 2_000_000);
+        System.out.println("=== patron history index, " + transactions + " transactions ===");
+        for (int perPatron : new int[] {5, 50, 500}) {
+            String[] ids = new String[transactions / perPatron];
+            for (int p = 0; p < ids.length; p++) {
+                ids[p] = patronId(p); // allocated up front so only the index is measured
+            }
+            long before = usedHeap();
+            PatronHistoryIndex index = new PatronHistoryIndex();
+            for (int id = 0; id < transactions; id++) {
+                index.add(ids[id % ids.length], id);
+            }
+            long measured = usedHeap() - before;
+            System.out.printf("%3d per patron   estimate %5.1f B/txn   measured %5.1f B/txn%n", perPatron,
+                    index.sizeInBytesEstimate() / (double) transactions, measured / (double) transactions);
+            if (index.size() != transactions) {
+                throw new IllegalStateException();
+            }
+        }
+
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 100; i++) {
+            checkout.addBook(new Book(isbn(i), "Title " + i, "Author", Book.BookType.FICTION, 10_000));
+        }
+        Patron[] patrons = new Patron[1_000];
+        for (int p = 0; p < patrons.length; p++) {
+            patrons[p] = patron(p);
+            checkout.registerPatron(patrons[p]);
+        }
+        int cycles = Integer.getInteger("bench.cycles", 500_000);
+        long begin = System.nanoTime();
+        for (int c = 0; c < cycles; c++) {
+            Patron patron = patrons[c % patrons.length];
+            checkout.checkoutBook(checkout.getInventory().get(isbn(c % 100)), patron);
+            checkout.returnBook(isbn(c % 100), patron);
+        }
+        System.out.printf("checkout+return   %10.0f cycles/s with %d transactions in history%n",
+                cycles / ((System.nanoTime() - begin) / 1e9), cycles);
+
+        for (int offset : new int[] {0, 400}) {
+            int pages = 100_000;
+            int found = 0;
+            begin = System.nanoTime();
+            for (int i = 0; i < pages; i++) {
+                found += checkout.getBorrowingHistory(patrons[i % patrons.length].getPatronId(), offset, 20).size();
+            }
+            System.out.printf("page of 20 @%-4d %8.0f ns/page (%d records)%n", offset,
+                    (System.nanoTime() - begin) / (double) pages, found);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    // ---------------------------------------------------------------- audit
+
+    private static void audit() {
+        int patrons = Integer.getInteger("bench.patrons", 1_000_000);
+        int titles = 100_000;
+        System.out.println("=== inventory audit, " + patrons + " patrons, " + titles + " titles ===");
+
+        Checkout checkout = new Checkout();
+        checkout.configureIsbnFilter(titles, Checkout.DEFAULT_ISBN_FILTER_FPP);
+        for (int i = 0; i < titles; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 100));
+        }
+        java.util.Random random = new java.util.Random(42);
+        for (int p = 0; p < patrons; p++) {
+            Patron patron = patron(p);
+            checkout.registerPatron(patron);
+            for (int loan = random.nextInt(4); loan > 0; loan--) {
+                checkout.checkoutBook(checkout.getInventory().get(isbn(random.nextInt(titles))), patron);
+            }
+        }
+
+        InventoryAuditor auditor = new InventoryAuditor(checkout);
+        for (int round = 0; round < 3; round++) {
+            InventoryAuditor.Report full = auditor.audit(false);
+            System.out.printf("full audit         %8.1f ms   %d books, %d discrepancies%n",
+                    full.getElapsedNanos() / 1e6, full.getBooksChecked(), full.getDiscrepancies().size());
+        }
+        for (int p = 0; p < 1_000; p++) {
+            Patron patron = checkout.getPatrons().get(patronId(p));
+            checkout.checkoutBook(checkout.getInventory().get(isbn(random.nextInt(titles))), patron);
+        }
+        InventoryAuditor.Report incremental = auditor.auditIncremental(false);
+        System.out.printf("incremental audit  %8.1f ms   %d books, %d discrepancies%n",
+                incremental.getElapsedNanos() / 1e6, incremental.getBooksChecked(),
+                incremental.getDiscrepancies().size());
+    }
+
+    // ---------------------------------------------------------------- alloc
+
+    private static void allocation() {
+        int cycles = Integer.getInteger("bench.cycles", 2_000_000);
+        System.out.println("=== checkout + renew + return, " + cycles + " cycles, one thread ===");
+        for (int round = 0; round < 3; round++) {
+            for (boolean allocationFree : new boolean[] {false, true}) {
+                String result = allocationRun(cycles, allocationFree);
+                if (round == 2) {
+                    System.out.println(result);
+                }
+            }
+        }
+    }
+
+    private static String allocationRun(int cycles, boolean allocationFree) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        Checkout checkout = new Checkout();
+        if (allocationFree) {
+            checkout.enableAllocationFreeMode(cycles);
+        }
+        Book[] books = new Book[100];
+        for (int i = 0; i < books.length; i++) {
+            books[i] = new Book(isbn(i), "Title " + i, "Author", Book.BookType.FICTION, 1_000);
+            checkout.addBook(books[i]);
+        }
+        Patron[] patrons = new Patron[1_000];
+        for (int p = 0; p < patrons.length; p++) {
+            patrons[p] = patron(p);
+            checkout.registerPatron(patrons[p]);
+        }
+
+        long gcs = collectionCount();
+        long bytes = threads.getCurrentThreadAllocatedBytes();
+        long begin = System.nanoTime();
+        double sink = 0;
+        for (int i = 0; i < cycles; i++) {
+            Book book = books[i % books.length];
+            Patron patron = patrons[i % patrons.length];
+            sink += checkout.checkoutBook(book, patron);
+            sink += checkout.checkoutBook(book, patron);
+            sink += checkout.returnBook(book.getIsbn(), patron);
+        }
+        long elapsed = System.nanoTime() - begin;
+        bytes = threads.getCurrentThreadAllocatedBytes() - bytes;
+        gcs = collectionCount() - gcs;
+        return String.format("%-16s %8.1f bytes/op %10.0f ops/s %6d collections%s",
+                allocationFree ? "allocation-free" : "default", bytes / (cycles * 3.0),
+                cycles * 3 / (elapsed / 1e9), gcs, sink < 0 ? "!" : "");
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (java.lang.management.GarbageCollectorMXBean gc
+                : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    // ---------------------------------------------------------------- helpers
+
+    static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+
+    static String patronId(int i) {
+        return String.format("P-%05d", i);
+    }
+
+    static Patron patron(int i) {
+        return new Patron(patronId(i), "Patron " + i, "p" + i + "@example.com", Patron.PatronType.FACULTY);
+    }
+
+    /**
+     * Aggregated wall time and per-operation latencies of one run.
+     */
+    static final class LatencyResult {
+        final long elapsedNanos;
+        final long[] sorted;
+
+        LatencyResult(long elapsedNanos, long[][] perThread) {
+            this.elapsedNanos = elapsedNanos;
+            this.sorted = Arrays.stream(perThread).flatMapToLong(Arrays::stream).sorted().toArray();
+        }
+
+        long percentile(double p) {
+            int index = (int) Math.min(sorted.length - 1, Math.ceil(p / 100.0 * sorted.length) - 1);
+            return sorted[Math.max(0, index)];
+        }
+
+        void print(String label) {
+            double seconds = elapsedNanos / 1e9;
+            System.out.printf("%-16s %12.0f ops/s   p50 %8.1f us   p99 %8.1f us   p99.9 %8.1f us%n",
+                    label, sorted.length / seconds,
+                    percentile(50) / 1e3, percentile(99) / 1e3, percentile(99.9) / 1e3);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Records circulation JFR events with the bundled settings and reads them back
+ * through the offline analyzer.
+ */
+public class CirculationEventsTest {
+
+    @AfterEach
+    public void tearDown() {
+        CirculationEvents.setEnabled(false);
+    }
+
+    @Test
+    @DisplayName("Checkout, renewal, rejection, return and fine events reach the recording")
+    public void testEventsAreRecorded() throws Exception {
+        Checkout checkout = new Checkout();
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.TEXTBOOK, 2);
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.STUDENT);
+        Patron suspended = new Patron("P-00002", "Blocked", "b@example.com", Patron.PatronType.PUBLIC);
+        suspended.setAccountSuspended(true);
+        checkout.addBook(book);
+
+        Path output = Files.createTempFile("circulation", ".jfr");
+        output.toFile().deleteOnExit();
+        Configuration settings = Configuration.create(Paths.get("config/jfr/circulation.jfc"));
+        try (Recording recording = new Recording(settings)) {
+            recording.start();
+            CirculationEvents.setEnabled(true);
+
+            checkout.checkoutBook(book, patron);
+            checkout.checkoutBook(book, patron);
+            checkout.checkoutBook(book, suspended);
+            // Make the loan 5 days overdue so the return charges a fine
+            patron.addCheckedOutBook(book.getIsbn(), LocalDate.now().minusDays(5));
+            checkout.returnBook(book.getIsbn(), patron);
+
+            CirculationEvents.setEnabled(false);
+            checkout.checkoutBook(book, patron); // not recorded
+            recording.stop();
+            recording.dump(output);
+        }
+
+        List<JfrCirculationReport.Row> rows = JfrCirculationReport.summarize(output);
+
+        assertEquals(1, count(rows, "library.Checkout", 0.0));
+        assertEquals(1, count(rows, "library.Renewal", 0.1));
+        assertEquals(1, count(rows, "library.EligibilityRejected", 3.0));
+        assertEquals(1, count(rows, "library.Return", 2.5));
+        assertEquals(1, count(rows, "library.FineAssessed", 2.5));
+    }
+
+    private static long count(List<JfrCirculationReport.Row> rows, String event, double code) {
+        return rows.stream()
+                .filter(r -> r.event.equals(event) && Math.abs(r.code - code) < 0.001)
+                .mapToLong(JfrCirculationReport.Row::count)
+                .sum();
+    }
+}
@@ -0,0 +1,215 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for hot-reloadable circulation policy tables.
+ */
+public class CirculationPolicyTest {
+
+    @AfterEach
+    public void tearDown() {
+        CirculationPolicy.install(CirculationPolicy.defaults());
+    }
+
+    @Test
+    @DisplayName("Default policy reproduces the original limits, loan periods and fines")
+    public void testDefaults() {
+        Checkout checkout = new Checkout();
+        int[] limits = {20, 15, 10, 5, 3};
+        int[] days = {60, 45, 30, 21, 14};
+        Patron.PatronType[] types = {Patron.PatronType.FACULTY, Patron.PatronType.STAFF,
+                Patron.PatronType.STUDENT, Patron.PatronType.PUBLIC, Patron.PatronType.CHILD};
+        for (int i = 0; i < types.length; i++) {
+            Patron patron = new Patron("P-" + i, "Patron", "p@example.com", types[i]);
+            assertEquals(limits[i], patron.getMaxCheckoutLimit());
+            assertEquals(days[i], patron.getLoanPeriodDays());
+        }
+        // A patron without a type keeps the old default branch instead of failing
+        Patron untyped = new Patron("P-x", "Patron", "p@example.com", null);
+        assertEquals(5, untyped.getMaxCheckoutLimit());
+        assertEquals(21, untyped.getLoanPeriodDays());
+        assertTrue(untyped.toString().contains("/5,"));
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 1);
+        checkout.addBook(book);
+        checkout.registerPatron(untyped);
+        assertEquals(0.0, checkout.checkoutBook(book, untyped), 0.01);
+        assertEquals(LocalDate.now().plusDays(21), untyped.getCheckedOutBooks().get(book.getIsbn()));
+        assertEquals(1.25, checkout.calculateFine(5, Book.BookType.FICTION), 0.001);
+        assertEquals(3.25, checkout.calculateFine(10, Book.BookType.NONFICTION), 0.001);
+        assertEquals(22.50, checkout.calculateFine(20, Book.BookType.TEXTBOOK), 0.001);
+        assertEquals(25.00, checkout.calculateFine(50, Book.BookType.FICTION), 0.001);
+        assertEquals(0.0, checkout.calculateFine(0, Book.BookType.FICTION), 0.001);
+        assertEquals(0, CirculationPolicy.current().getVersion());
+    }
+
+    @Test
+    @DisplayName("Config overrides apply over the defaults and bad values are rejected")
+    public void testFromProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("limit.CHILD", "4");
+        properties.setProperty("fine.tierDays", "3");
+        properties.setProperty("fine.rates", "0.10, 2.00");
+        properties.setProperty("fine.multiplier.CHILDREN", "0.5");
+        properties.setProperty("fine.cap", "5");
+        CirculationPolicy policy = CirculationPolicy.fromProperties(properties, 7);
+
+        assertEquals(7, policy.getVersion());
+        assertEquals(4, policy.getMaxCheckoutLimit(Patron.PatronType.CHILD));
+        assertEquals(14, policy.getLoanPeriodDays(Patron.PatronType.CHILD));
+        assertEquals(4.30, policy.calculateFine(5, Book.BookType.FICTION), 0.001);
+        assertEquals(2.15, policy.calculateFine(5, Book.BookType.CHILDREN), 0.001);
+        assertEquals(5.0, policy.calculateFine(30, Book.BookType.TEXTBOOK), 0.001);
+
+        properties.setProperty("fine.rates", "0.10");
+        assertThrows(IllegalArgumentException.class, () -> CirculationPolicy.fromProperties(properties, 8));
+        properties.setProperty("fine.rates", "0.10, 2.00");
+        properties.setProperty("limit.STAFF", "many");
+        assertThrows(IllegalArgumentException.class, () -> CirculationPolicy.fromProperties(properties, 8));
+        properties.remove("limit.STAFF");
+        properties.setProperty("limit.STUDNET", "12");
+        IllegalArgumentException misspelled = assertThrows(IllegalArgumentException.class,
+                () -> CirculationPolicy.fromProperties(properties, 8));
+        assertTrue(misspelled.getMessage().contains("limit.STUDNET"), misspelled.getMessage());
+    }
+
+    @Test
+    @DisplayName("Watcher reloads a changed file and keeps the policy when the file is invalid")
+    public void testWatcher() throws Exception {
+        Path file = Files.createTempDirectory("policy").resolve("circulation.properties");
+        Files.write(file, "limit.PUBLIC=6\n".getBytes());
+        try (PolicyWatcher watcher = new PolicyWatcher(file, 10)) {
+            long version = CirculationPolicy.current().getVersion();
+            assertEquals(6, CirculationPolicy.current().getMaxCheckoutLimit(Patron.PatronType.PUBLIC));
+
+            write(file, "limit.PUBLIC=7\n", 1);
+            awaitVersion(version + 1);
+            assertEquals(7, new Patron("P-1", "Patron", "p@example.com", Patron.PatronType.PUBLIC)
+                    .getMaxCheckoutLimit());
+
+            write(file, "limit.PUBLIC=-1\n", 2);
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (watcher.getLastError() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertNotNull(watcher.getLastError());
+            assertEquals(version + 1, CirculationPolicy.current().getVersion());
+
+            write(file, "limit.PUBLIC=8\nloanDay.PUBLIC=30\n", 3);
+            deadline = System.currentTimeMillis() + 5_000;
+            while (!watcher.getLastError().getMessage().contains("loanDay.PUBLIC")
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(watcher.getLastError().getMessage().contains("loanDay.PUBLIC"));
+            assertEquals(version + 1, CirculationPolicy.current().getVersion());
+            assertEquals(7, CirculationPolicy.current().getMaxCheckoutLimit(Patron.PatronType.PUBLIC));
+        }
+    }
+
+    @Test
+    @DisplayName("Every checkout under concurrent reloads applies exactly one policy version")
+    public void testReloadUnderLoad() throws Exception {
+        // Version A: STUDENT limit 10, 30 days -> the 9th loan warns (1.1) and is due in 30 days
+        // Version B: STUDENT limit 20, 60 days -> the 9th loan is plain (0.0) and is due in 60 days
+        Path dir = Files.createTempDirectory("policy");
+        Path file = dir.resolve("circulation.properties");
+        String policyA = "limit.STUDENT=10\nloanDays.STUDENT=30\n";
+        String policyB = "limit.STUDENT=20\nloanDays.STUDENT=60\n";
+        Files.write(file, policyA.getBytes());
+        CirculationPolicy.reload(file);
+
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 20; i++) {
+            checkout.addBook(new Book(String.format("978%010d", i), "Title", "Author", Book.BookType.FICTION, 100));
+        }
+        List<Patron> patrons = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Patron patron = new Patron("P-" + t, "Patron", "p@example.com", Patron.PatronType.STUDENT);
+            checkout.registerPatron(patron);
+            for (int i = 0; i < 8; i++) {
+                checkout.checkoutBook(checkout.getInventory().get(String.format("978%010d", 10 + i)), patron);
+            }
+            patrons.add(patron);
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger sawA = new AtomicInteger();
+        AtomicInteger sawB = new AtomicInteger();
+        List<String> inconsistent = java.util.Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (Patron patron : patrons) {
+            threads.add(new Thread(() -> {
+                int i = 0;
+                while (running.get()) {
+                    String isbn = String.format("978%010d", i++ % 10);
+                    double code = checkout.checkoutBook(checkout.getInventory().get(isbn), patron);
+                    long days = ChronoUnit.DAYS.between(LocalDate.now(), patron.getCheckedOutBooks().get(isbn));
+                    checkout.returnBook(isbn, patron);
+                    if (code == 1.1 && days == 30) {
+                        sawA.incrementAndGet();
+                    } else if (code == 0.0 && days == 60) {
+                        sawB.incrementAndGet();
+                    } else {
+                        inconsistent.add(code + " with " + days + " days");
+                    }
+                }
+            }));
+        }
+        Thread reloader = new Thread(() -> {
+            try {
+                for (int n = 0; n < 400; n++) {
+                    Path tmp = dir.resolve("next.properties");
+                    Files.write(tmp, (n % 2 == 0 ? policyB : policyA).getBytes());
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    CirculationPolicy.reload(file);
+                    Thread.sleep(1);
+                }
+            } catch (Exception e) {
+                inconsistent.add("reload failed: " + e);
+            } finally {
+                running.set(false);
+            }
+        });
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        reloader.start();
+        reloader.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(inconsistent.isEmpty(), inconsistent.size() + " mixed operations, e.g. " + inconsistent);
+        assertTrue(sawA.get() > 0 && sawB.get() > 0, "A " + sawA + ", B " + sawB);
+        assertTrue(CirculationPolicy.current().getVersion() > 400);
+    }
+
+    private static void write(Path file, String content, int step) throws Exception {
+        Files.write(file, content.getBytes());
+        // Coarse filesystem timestamps must not hide the change
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + step * 10_000L));
+    }
+
+    private static void awaitVersion(long version) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (CirculationPolicy.current().getVersion() < version && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(version, CirculationPolicy.current().getVersion());
+    }
+}
@@ -0,0 +1,171 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for due-soon reminder generation from the due-date index.
+ */
+public class DueReminderGeneratorTest {
+
+    private Checkout checkout;
+    private Path spool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        checkout = new Checkout();
+        spool = Files.createTempDirectory("reminders").resolve("spool.txt");
+        spool.toFile().deleteOnExit();
+
+        // CHILD loans are due in 14 days, FACULTY loans in 60
+        for (int i = 0; i < 6; i++) {
+            Book book = new Book("97800000000" + (10 + i), "Book " + i, "Author", Book.BookType.CHILDREN, 5);
+            checkout.addBook(book);
+        }
+        for (int p = 0; p < 4; p++) {
+            Patron child = new Patron("P-1000" + p, "Child " + p, "c" + p + "@example.com", Patron.PatronType.CHILD);
+            checkout.registerPatron(child);
+            checkout.checkoutBook(checkout.getInventory().get("9780000000010"), child);
+            checkout.checkoutBook(checkout.getInventory().get("9780000000011"), child);
+        }
+        Patron faculty = new Patron("P-20000", "Prof", "prof@example.com", Patron.PatronType.FACULTY);
+        checkout.registerPatron(faculty);
+        checkout.checkoutBook(checkout.getInventory().get("9780000000012"), faculty);
+    }
+
+    @Test
+    @DisplayName("Only loans due in the window are spooled, grouped per patron")
+    public void testWindowAndGrouping() throws Exception {
+        DueReminderGenerator generator = new DueReminderGenerator(checkout, spool);
+
+        int patrons = generator.run(LocalDate.now(), 20);
+
+        List<String> lines = Files.readAllLines(spool);
+        assertEquals(4, patrons);
+        assertEquals(4, count(lines, "REMINDER|"));
+        assertEquals(8, count(lines, "LOAN|"));
+        assertFalse(String.join("\n", lines).contains("P-20000"), "Faculty loan is due outside the window");
+        assertEquals(0, generator.run(LocalDate.now(), 20), "A completed run is not repeated");
+    }
+
+    @Test
+    @DisplayName("Returned and renewed loans leave the index")
+    public void testReturnRemovesLoan() throws Exception {
+        Patron child = checkout.getPatrons().get("P-10000");
+        checkout.returnBook("9780000000010", child);
+        checkout.returnBook("9780000000011", child);
+
+        int patrons = new DueReminderGenerator(checkout, spool).run(LocalDate.now(), 20);
+
+        assertEquals(3, patrons);
+    }
+
+    @Test
+    @DisplayName("An interrupted run resumes after the last checkpointed patron")
+    public void testResume() throws Exception {
+        DueReminderGenerator generator = new DueReminderGenerator(checkout, spool, 1);
+
+        assertEquals(3, generator.run(LocalDate.now(), 20, 3));
+        assertEquals(1, generator.run(LocalDate.now(), 20));
+
+        List<String> reminders = Files.readAllLines(spool).stream()
+                .filter(l -> l.startsWith("REMINDER|"))
+                .collect(Collectors.toList());
+        assertEquals(4, reminders.size());
+        assertEquals(4, reminders.stream().distinct().count(), "No patron is reminded twice");
+    }
+
+    @Test
+    @DisplayName("A run resumes after a block of a loan without a patron ID")
+    public void testResumeAfterNullPatronId() throws Exception {
+        // Sorts before the children's loans due the same day
+        checkout.dueDateIndex().add(null, "9780000000013", LocalDate.now().plusDays(14).toEpochDay());
+        DueReminderGenerator generator = new DueReminderGenerator(checkout, spool, 1);
+
+        assertEquals(1, generator.run(LocalDate.now(), 20, 1));
+        assertEquals(2, generator.run(LocalDate.now(), 20, 2));
+        assertEquals(2, generator.run(LocalDate.now(), 20));
+
+        List<String> reminders = Files.readAllLines(spool).stream()
+                .filter(l -> l.startsWith("REMINDER|"))
+                .collect(Collectors.toList());
+        assertEquals(5, reminders.size());
+        assertTrue(reminders.get(0).startsWith("REMINDER|" + LocalDate.now() + "|||"));
+        assertEquals(5, reminders.stream().distinct().count(), "No patron is reminded twice");
+    }
+
+    @Test
+    @DisplayName("A patron with many loans in the window gets one block in due order")
+    public void testManyLoansOnePatron() throws Exception {
+        Patron faculty = checkout.getPatrons().get("P-20000");
+        for (int i = 0; i < 2_000; i++) {
+            faculty.addCheckedOutBook("979" + i, LocalDate.now().plusDays(i % 30));
+            checkout.dueDateIndex().add("P-20000", "979" + i, LocalDate.now().plusDays(i % 30).toEpochDay());
+        }
+
+        assertEquals(5, new DueReminderGenerator(checkout, spool).run(LocalDate.now(), 20));
+
+        List<String> lines = Files.readAllLines(spool);
+        int start = lines.indexOf(lines.stream().filter(l -> l.contains("|P-20000|")).findFirst().orElseThrow());
+        assertTrue(lines.get(start).endsWith("|1406"), lines.get(start));
+        String previous = "";
+        for (String loan : lines.subList(start + 1, start + 1 + 1_406)) {
+            String due = loan.split("\\|")[2];
+            assertTrue(due.compareTo(previous) >= 0, "loans in due order");
+            previous = due;
+        }
+        assertEquals("END", lines.get(start + 1 + 1_406));
+    }
+
+    @Test
+    @DisplayName("A due date changed on the patron cannot leave a stale index entry behind")
+    public void testDueDateChangedOutsideCheckout() throws Exception {
+        Patron child = checkout.getPatrons().get("P-10000");
+        child.addCheckedOutBook("9780000000010", LocalDate.now().plusDays(40));
+
+        new DueReminderGenerator(checkout, spool).run(LocalDate.now(), 20);
+        assertTrue(Files.readAllLines(spool).stream()
+                .anyMatch(l -> l.startsWith("REMINDER|") && l.contains("|P-10000|") && l.endsWith("|1")),
+                "Only the loan still due in the window is reminded");
+        Files.delete(spool);
+        Files.delete(spool.resolveSibling(spool.getFileName() + ".checkpoint"));
+
+        checkout.returnBook("9780000000010", child);
+        checkout.returnBook("9780000000011", child);
+        assertEquals(7, checkout.dueDateIndex().size());
+        assertEquals(4, new DueReminderGenerator(checkout, spool).run(LocalDate.now(), 60));
+        assertFalse(String.join("\n", Files.readAllLines(spool)).contains("P-10000"));
+    }
+
+    @Test
+    @DisplayName("Separators and line breaks in text fields are escaped")
+    public void testEscaping() throws Exception {
+        checkout.addBook(new Book("9780000000099", "Pipes | and\nlines \\ here", "Author", Book.BookType.CHILDREN, 1));
+        Patron patron = new Patron("P-30000", "Name|with\r\nbreak", "x@example.com", Patron.PatronType.CHILD);
+        checkout.registerPatron(patron);
+        checkout.checkoutBook(checkout.getInventory().get("9780000000099"), patron);
+
+        new DueReminderGenerator(checkout, spool).run(LocalDate.now(), 20);
+
+        List<String> lines = Files.readAllLines(spool);
+        for (String line : lines) {
+            assertTrue(line.startsWith("REMINDER|") || line.startsWith("LOAN|") || line.equals("END"), line);
+        }
+        assertTrue(lines.contains("LOAN|9780000000099|" + LocalDate.now().plusDays(14)
+                + "|Pipes \\| and\\nlines \\\\ here"));
+        assertTrue(lines.stream().anyMatch(l -> l.contains("|Name\\|with\\r\\nbreak|1")));
+        assertEquals("plain", DueReminderGenerator.escape("plain"));
+        assertEquals("", DueReminderGenerator.escape(null));
+    }
+
+    private static long count(List<String> lines, String prefix) {
+        return lines.stream().filter(l -> l.startsWith(prefix)).count();
+    }
+}
@@ -0,0 +1,209 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the copies-versus-loans consistency auditor.
+ */
+public class InventoryAuditorTest {
+
+    @Test
+    @DisplayName("Consistent library audits clean; drift is reported and repaired")
+    public void testDetectAndRepair() {
+        Checkout checkout = library(3, 200);
+        for (int p = 0; p < 200; p++) {
+            Patron patron = checkout.getPatrons().get(patronId(p));
+            assertEquals(0.0, checkout.checkoutBook(checkout.getInventory().get(isbn(p % 3)), patron), 0.01);
+        }
+        InventoryAuditor auditor = new InventoryAuditor(checkout);
+        assertTrue(auditor.audit(false).isConsistent());
+
+        // Copy lost track of without a return, and a loan recorded without taking a copy
+        Book drifted = checkout.getInventory().get(isbn(0));
+        drifted.returnBook();
+        checkout.getPatrons().get(patronId(1)).addCheckedOutBook(isbn(2), LocalDate.now().plusDays(7));
+        checkout.getPatrons().get(patronId(4)).addCheckedOutBook("9999999999", LocalDate.now().plusDays(7));
+
+        InventoryAuditor.Report report = auditor.audit(false);
+        assertEquals(2, report.getDiscrepancies().size());
+        InventoryAuditor.Discrepancy first = report.getDiscrepancies().get(0);
+        assertEquals(isbn(0), first.getIsbn());
+        assertEquals(67, first.getLoans());
+        assertEquals(100 - 67, first.getExpectedAvailable());
+        assertEquals(100 - 66, first.getActualAvailable());
+        assertEquals(Integer.valueOf(1), report.getUnknownLoans().get("9999999999"));
+        assertEquals(200, report.getPatronsScanned());
+
+        InventoryAuditor.Report repaired = auditor.audit(true);
+        assertEquals(2, repaired.getRepaired());
+        assertEquals(100 - 67, drifted.getAvailableCopies());
+        assertEquals(100 - 67, checkout.getInventory().get(isbn(2)).getAvailableCopies());
+        assertTrue(auditor.audit(false).getDiscrepancies().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Repair never frees a copy that an open loan holds")
+    public void testRepairKeepsHeldCopies() {
+        Checkout checkout = library(1, 3);
+        Book book = new Book("9780000000999", "Small", "Author", Book.BookType.FICTION, 3);
+        checkout.addBook(book);
+        for (int p = 0; p < 3; p++) {
+            checkout.checkoutBook(book, checkout.getPatrons().get(patronId(p)));
+        }
+        // Patron 0's loan (copy 0) disappears without a return; copy 2 is still held by patron 2
+        checkout.getPatrons().get(patronId(0)).removeCheckedOutBook(book.getIsbn());
+
+        InventoryAuditor.Report report = new InventoryAuditor(checkout).audit(true);
+        assertEquals(1, report.getRepaired());
+        assertEquals(Book.CopyState.AVAILABLE, book.getCopyState(0));
+        assertEquals(Book.CopyState.OUT, book.getCopyState(1));
+        assertEquals(Book.CopyState.OUT, book.getCopyState(2));
+
+        // A copy returned by mistake is taken back off the shelf, not just any copy
+        book.returnCopy(1);
+        checkout.checkoutBook(book, checkout.getPatrons().get(patronId(0))); // takes copy 0
+        assertEquals(1, new InventoryAuditor(checkout).audit(true).getRepaired());
+        assertEquals(Book.CopyState.OUT, book.getCopyState(1));
+        assertEquals(0.0, checkout.returnBook(book.getIsbn(), checkout.getPatrons().get(patronId(1))), 0.01);
+        assertEquals(Book.CopyState.AVAILABLE, book.getCopyState(1));
+    }
+
+    @Test
+    @DisplayName("Lost and in-repair copies are not counted as drift")
+    public void testLostAndRepairCopies() {
+        Checkout checkout = library(1, 2);
+        Book book = checkout.getInventory().get(isbn(0));
+        checkout.checkoutBook(book, checkout.getPatrons().get(patronId(0)));
+        assertTrue(book.markCopyLost(10));
+        assertTrue(book.sendCopyToRepair(11));
+
+        InventoryAuditor.Report report = new InventoryAuditor(checkout).audit(false);
+        assertTrue(report.isConsistent(), String.valueOf(report.getDiscrepancies()));
+    }
+
+    @Test
+    @DisplayName("Incremental audit only checks ISBNs touched since the last run")
+    public void testIncremental() {
+        Checkout checkout = library(10, 20);
+        InventoryAuditor auditor = new InventoryAuditor(checkout);
+        assertEquals(0, auditor.auditIncremental(false).getBooksChecked());
+
+        Patron patron = checkout.getPatrons().get(patronId(0));
+        checkout.checkoutBook(checkout.getInventory().get(isbn(3)), patron);
+        checkout.returnBook(isbn(3), patron);
+        checkout.checkoutBook(checkout.getInventory().get(isbn(5)), patron);
+        // Drift on an untouched book is invisible to the incremental pass
+        checkout.getInventory().get(isbn(7)).checkoutCopy();
+
+        InventoryAuditor.Report report = auditor.auditIncremental(false);
+        assertEquals(2, report.getBooksChecked());
+        assertTrue(report.isConsistent());
+        assertEquals(0, auditor.auditIncremental(false).getBooksChecked());
+
+        InventoryAuditor.Report full = auditor.audit(false);
+        assertEquals(1, full.getDiscrepancies().size());
+        // Unrepaired discrepancies stay in scope for the next incremental run
+        assertEquals(1, auditor.auditIncremental(false).getDiscrepancies().size());
+    }
+
+    @Test
+    @DisplayName("Incremental audit reads only the holders of touched ISBNs, not every patron")
+    public void testIncrementalScansHolders() {
+        Checkout checkout = library(10, 5_000);
+        Book book = checkout.getInventory().get(isbn(2));
+        for (int p = 0; p < 30; p++) {
+            // Loans made before the auditor exists are indexed when it is created
+            checkout.checkoutBook(book, checkout.getPatrons().get(patronId(p)));
+        }
+        InventoryAuditor auditor = new InventoryAuditor(checkout);
+        for (int p = 30; p < 40; p++) {
+            checkout.checkoutBook(book, checkout.getPatrons().get(patronId(p)));
+        }
+        checkout.returnBook(isbn(2), checkout.getPatrons().get(patronId(0)));
+        book.returnBook(); // one copy too many marked available
+
+        InventoryAuditor.Report report = auditor.auditIncremental(true);
+        assertEquals(1, report.getBooksChecked());
+        assertTrue(report.getPatronsScanned() <= 40, report.getPatronsScanned() + " patrons scanned");
+        assertEquals(1, report.getDiscrepancies().size());
+        assertEquals(39, report.getDiscrepancies().get(0).getLoans());
+        assertEquals(1, report.getRepaired());
+        assertEquals(100 - 39, book.getAvailableCopies());
+
+        assertTrue(auditor.audit(false).isConsistent());
+        assertEquals(5_000, auditor.audit(false).getPatronsScanned());
+
+        // A loan recorded directly on a patron reaches the index through the next full audit
+        Patron direct = checkout.getPatrons().get(patronId(4_999));
+        direct.addCheckedOutBook(isbn(2), LocalDate.now().plusDays(14));
+        book.checkoutCopy();
+        checkout.getPatrons().get(patronId(1)).removeCheckedOutBook(isbn(2));
+        assertEquals(1, auditor.audit(false).getDiscrepancies().size());
+        checkout.returnBook(isbn(2), checkout.getPatrons().get(patronId(2)));
+        InventoryAuditor.Report after = auditor.auditIncremental(false);
+        assertEquals(1, after.getDiscrepancies().size());
+        assertEquals(38, after.getDiscrepancies().get(0).getLoans());
+    }
+
+    @Test
+    @DisplayName("Audits during live circulation report no false discrepancies")
+    public void testLiveAudit() throws Exception {
+        Checkout checkout = library(20, 400);
+        InventoryAuditor auditor = new InventoryAuditor(checkout);
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> clerks = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int id = t;
+            Thread clerk = new Thread(() -> {
+                // Each clerk owns a disjoint set of patrons, like the per-patron event loops
+                int i = 0;
+                while (running.get()) {
+                    Patron patron = checkout.getPatrons().get(patronId(id + 4 * (i % 100)));
+                    String isbn = isbn(i % 20);
+                    checkout.checkoutBook(checkout.getInventory().get(isbn), patron);
+                    checkout.returnBook(isbn, patron);
+                    i++;
+                }
+            });
+            clerks.add(clerk);
+            clerk.start();
+        }
+        try {
+            for (int run = 0; run < 20; run++) {
+                InventoryAuditor.Report report = run % 2 == 0 ? auditor.audit(false) : auditor.auditIncremental(false);
+                assertTrue(report.getDiscrepancies().isEmpty(), String.valueOf(report.getDiscrepancies()));
+            }
+        } finally {
+            running.set(false);
+            for (Thread clerk : clerks) {
+                clerk.join();
+            }
+        }
+        assertTrue(auditor.audit(false).isConsistent());
+    }
+
+    private static Checkout library(int titles, int patrons) {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < titles; i++) {
+            checkout.addBook(new Book(isbn(i), "Title " + i, "Author", Book.BookType.FICTION, 100));
+        }
+        for (int p = 0; p < patrons; p++) {
+            checkout.registerPatron(new Patron(patronId(p), "Patron", "p@example.com", Patron.PatronType.STUDENT));
+        }
+        return checkout;
+    }
+
+    private static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+
+    private static String patronId(int i) {
+        return String.format("P-%05d", i);
+    }
+}
@@ -0,0 +1,161 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the ISBN Bloom filter and its use by Checkout lookups.
+ */
+public class IsbnBloomFilterTest {
+
+    @Test
+    @DisplayName("No false negatives and false-positive rate near the target")
+    public void testFalsePositiveRate() {
+        IsbnBloomFilter filter = new IsbnBloomFilter(100_000, 0.01);
+        for (int i = 0; i < 100_000; i++) {
+            filter.add(isbn(i));
+        }
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(isbn(i)));
+        }
+
+        int falsePositives = 0;
+        for (int i = 100_000; i < 200_000; i++) {
+            if (filter.mightContain(isbn(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positive rate too high: " + falsePositives / 100_000.0);
+    }
+
+    @Test
+    @DisplayName("Checkout keeps finding every book across filter rebuilds")
+    public void testLookupsSurviveGrowth() {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 5_000; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 1));
+        }
+
+        for (int i = 0; i < 5_000; i++) {
+            assertNotNull(checkout.findBook(isbn(i)), isbn(i));
+        }
+        assertNull(checkout.findBook(isbn(99_999)));
+        assertNull(checkout.findBook(null));
+    }
+
+    @Test
+    @DisplayName("findBook consults the filter only while most lookups miss")
+    public void testFilterOnlyForMissHeavyLookups() {
+        Checkout checkout = new Checkout();
+        for (int i = 0; i < 1_000; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 1));
+        }
+        assertFalse(checkout.isIsbnFilterActive());
+
+        for (int i = 0; i < 100_000; i++) {
+            assertNull(checkout.findBook(isbn(10_000 + i)));
+        }
+        assertTrue(checkout.isIsbnFilterActive(), "miss-heavy traffic turns the filter on");
+        for (int i = 0; i < 1_000; i++) {
+            assertNotNull(checkout.findBook(isbn(i)), "no false negatives while the filter is on");
+        }
+
+        for (int i = 0; i < 100_000; i++) {
+            assertNotNull(checkout.findBook(isbn(i % 1_000)));
+        }
+        assertFalse(checkout.isIsbnFilterActive(), "hit-heavy traffic turns it off again");
+    }
+
+    @Test
+    @DisplayName("Books added on one thread are found by concurrent readers")
+    public void testConcurrentAddAndLookup() throws Exception {
+        Checkout checkout = new Checkout();
+        int titles = 50_000;
+        AtomicInteger published = new AtomicInteger();
+        AtomicInteger missing = new AtomicInteger();
+        Thread[] readers = new Thread[3];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                java.util.Random random = new java.util.Random();
+                while (published.get() < titles) {
+                    int known = published.get();
+                    if (known > 0) {
+                        String isbn = isbn(random.nextInt(known));
+                        if (checkout.findBook(isbn) == null || checkout.getInventory().get(isbn) == null) {
+                            missing.incrementAndGet();
+                        }
+                    }
+                    checkout.findBook(isbn(titles + random.nextInt(titles)));
+                }
+            });
+            readers[t].start();
+        }
+        for (int i = 0; i < titles; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 1));
+            published.incrementAndGet();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, missing.get(), "a book added before a lookup began was not found");
+        assertThrows(IllegalArgumentException.class,
+                () -> checkout.addBook(new Book(null, "Title", "Author", Book.BookType.FICTION, 1)));
+    }
+
+    @Test
+    @DisplayName("mergeCatalog adds only unknown titles and returns of foreign ISBNs are rejected")
+    public void testMergeAndForeignReturn() {
+        Checkout checkout = new Checkout();
+        checkout.configureIsbnFilter(10, 0.001);
+        Book owned = new Book(isbn(1), "Owned", "Author", Book.BookType.FICTION, 3);
+        checkout.addBook(owned);
+
+        List<Book> feed = new ArrayList<>();
+        feed.add(new Book(isbn(1), "Duplicate", "Author", Book.BookType.FICTION, 9));
+        feed.add(new Book(isbn(2), "New", "Author", Book.BookType.FICTION, 1));
+
+        assertEquals(1, checkout.mergeCatalog(feed));
+        assertSame(owned, checkout.findBook(isbn(1)));
+
+        Patron patron = new Patron("P-00001", "Test", "t@example.com", Patron.PatronType.STUDENT);
+        patron.addCheckedOutBook(isbn(42), java.time.LocalDate.now());
+        assertEquals(-1.0, checkout.returnBook(isbn(42), patron), 0.001);
+    }
+
+    @Test
+    @DisplayName("ISBNs with equal String hash codes are told apart")
+    public void testEqualHashCodes() {
+        // "Aa" and "BB" have the same String.hashCode, so these do too
+        String added = "978000000Aa";
+        String other = "978000000BB";
+        assertEquals(added.hashCode(), other.hashCode());
+        IsbnBloomFilter filter = new IsbnBloomFilter(1_000, 1e-6);
+        filter.add(added);
+
+        assertTrue(filter.mightContain(added));
+        assertFalse(filter.mightContain(other));
+    }
+
+    @Test
+    @DisplayName("Invalid filter settings are rejected without changing the filter")
+    public void testConfigureValidation() {
+        Checkout checkout = new Checkout();
+        assertThrows(IllegalArgumentException.class, () -> checkout.configureIsbnFilter(4, 0.0));
+        assertThrows(IllegalArgumentException.class, () -> checkout.configureIsbnFilter(4, 1.0));
+        assertThrows(IllegalArgumentException.class, () -> checkout.configureIsbnFilter(0, 0.01));
+
+        // Growth past the default capacity still uses the previous, valid rate
+        for (int i = 0; i < 3 * Checkout.DEFAULT_ISBN_FILTER_CAPACITY; i++) {
+            checkout.addBook(new Book(isbn(i), "Title", "Author", Book.BookType.FICTION, 1));
+        }
+        assertNotNull(checkout.findBook(isbn(0)));
+    }
+
+    private static String isbn(int i) {
+        return String.format("978%010d", i);
+    }
+}
@@ -0,0 +1,143 @@
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the per-patron borrowing history index.
+ */
+public class PatronHistoryIndexTest {
+
+    @Test
+    @DisplayName("Pages are newest first and cross segment boundaries")
+    public void testPaging() {
+        PatronHistoryIndex index = new PatronHistoryIndex();
+        for (int id = 0; id < 1_000; id++) {
+            index.add(id % 2 == 0 ? "P-1" : "P-2", id);
+        }
+
+        assertEquals(500, index.count("P-1"));
+        assertEquals(0, index.count("P-3"));
+        assertArrayEquals(new int[] {998, 996, 994}, index.page("P-1", 0, 3));
+        // The oldest 64 ids share the first segment; this page reaches into it
+        int[] page = index.page("P-1", 434, 5);
+        assertArrayEquals(new int[] {130, 128, 126, 124, 122}, page);
+        assertArrayEquals(new int[] {2, 0}, index.page("P-1", 498, 10));
+        assertEquals(0, index.page("P-1", 500, 10).length);
+        assertEquals(0, index.page("P-3", 0, 10).length);
+        assertEquals(999, index.findNewest("P-2", id -> true));
+        assertEquals(-1, index.findNewest("P-2", id -> id % 2 == 0));
+    }
+
+    @Test
+    @DisplayName("Deep pages of a long history are reached in a logarithmic number of segment steps")
+    public void testDeepPagingSeeks() {
+        PatronHistoryIndex index = new PatronHistoryIndex();
+        int total = 1_000_000; // about 3,900 segments of at most 256 ids
+        for (int id = 0; id < total; id++) {
+            index.add("P-1", 2 * id);
+            if (id < 5_000) {
+                index.add("P-2", 2 * id + 1);
+            }
+        }
+
+        for (int offset = 0; offset <= 5_000; offset++) {
+            int[] page = index.page("P-2", offset, 3);
+            assertEquals(Math.min(3, 5_000 - offset), page.length);
+            for (int n = 0; n < page.length; n++) {
+                assertEquals(2 * (4_999 - offset - n) + 1, page[n], "offset " + offset);
+            }
+        }
+
+        long worst = 0;
+        for (int offset = total - 1; offset > 0; offset -= 997) {
+            long before = index.seekSteps();
+            int[] page = index.page("P-1", offset, 2);
+            worst = Math.max(worst, index.seekSteps() - before);
+            assertEquals(2 * (total - 1 - offset), page[0]);
+        }
+        // A segment-by-segment walk to the oldest ids would take about 3,900 steps; skew-binary
+        // jumps need about 2 * log2(3,900), so 24 or so
+        assertTrue(worst <= 3 * 12, "segments visited: " + worst);
+        assertArrayEquals(new int[] {2, 0}, index.page("P-1", total - 2, 10));
+    }
+
+    @Test
+    @DisplayName("Column log pages match a plain walk at every offset")
+    public void testColumnLogPaging() {
+        TransactionLog log = new TransactionLog(16, 2);
+        Patron one = new Patron("P-1", "One", "one@example.com", Patron.PatronType.STAFF);
+        Patron two = new Patron("P-2", "Two", "two@example.com", Patron.PatronType.STAFF);
+        Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 1);
+        for (int id = 0; id < 1_000; id++) {
+            log.add(id % 3 == 0 ? two : one, book, id, id + 14, 0);
+        }
+
+        List<Integer> newestFirst = new ArrayList<>();
+        for (int id = 999; id >= 0; id--) {
+            if (id % 3 != 0) {
+                newestFirst.add(id);
+            }
+        }
+        assertEquals(newestFirst.size(), log.count("P-1"));
+        for (int offset = 0; offset <= newestFirst.size(); offset++) {
+            int[] page = log.page("P-1", offset, 4);
+            assertEquals(Math.min(4, newestFirst.size() - offset), page.length);
+            for (int n = 0; n < page.length; n++) {
+                assertEquals((int) newestFirst.get(offset + n), page[n], "offset " + offset);
+            }
+        }
+        assertEquals(0, log.page("P-3", 0, 4).length);
+    }
+
+    @Test
+    @DisplayName("Index stays within a few bytes per transaction for active patrons")
+    public void testMemoryPerTransaction() {
+        PatronHistoryIndex index = new PatronHistoryIndex();
+        for (int id = 0; id < 100_000; id++) {
+            index.add("P-" + (id % 100), id);
+        }
+        double perTransaction = index.sizeInBytesEstimate() / (double) index.size();
+        assertTrue(perTransaction < 6.0, "bytes per transaction: " + perTransaction);
+    }
+
+    @Test
+    @DisplayName("Checkout exposes current and past loans, renewals included")
+    public void testBorrowingHistory() {
+        Checkout checkout = new Checkout();
+        Patron patron = new Patron("P-1", "Patron", "p@example.com", Patron.PatronType.FACULTY);
+        checkout.registerPatron(patron);
+        for (int i = 0; i < 5; i++) {
+            checkout.addBook(new Book("978000000000" + i, "Title " + i, "Author", Book.BookType.FICTION, 2));
+        }
+        for (int i = 0; i < 5; i++) {
+            checkout.checkoutBook(checkout.getInventory().get("978000000000" + i), patron);
+        }
+        checkout.returnBook("9780000000001", patron);
+        checkout.returnBooks(patron, List.of("9780000000003"));
+        checkout.checkoutBook(checkout.getInventory().get("9780000000001"), patron);
+        patron.addCheckedOutBook("9780000000004", LocalDate.now());
+        checkout.checkoutBook(checkout.getInventory().get("9780000000004"), patron); // renewal
+
+        assertEquals(6, checkout.getBorrowingCount("P-1"));
+        List<Checkout.LoanRecord> newest = checkout.getBorrowingHistory("P-1", 0, 2);
+        assertEquals("9780000000001", newest.get(0).getIsbn());
+        assertTrue(newest.get(0).isOpen());
+        assertEquals("9780000000004", newest.get(1).getIsbn());
+        assertEquals(LocalDate.now().plusDays(60), newest.get(1).getDueDate());
+
+        List<Checkout.LoanRecord> older = checkout.getBorrowingHistory("P-1", 2, 10);
+        assertEquals(4, older.size());
+        assertEquals("9780000000003", older.get(0).getIsbn());
+        assertEquals(LocalDate.now(), older.get(0).getReturnDate());
+        assertEquals("9780000000001", older.get(2).getIsbn());
+        assertFalse(older.get(2).isOpen());
+        assertTrue(older.get(3).isOpen());
+        assertTrue(checkout.getBorrowingHistory("P-9", 0, 10).isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> checkout.getBorrowingHistory("P-1", -1, 10));
+    }
+}
@@ -0,0 +1,147 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the disk-backed patron store and its LRU cache.
+ */
+public class PatronStoreTest {
+
+    private Path dataFile;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        Path dir = Files.createTempDirectory("patrons");
+        dir.toFile().deleteOnExit();
+        dataFile = dir.resolve("patrons.dat");
+    }
+
+    @Test
+    @DisplayName("Checkouts work transparently while patrons are evicted and re-hydrated")
+    public void testCheckoutThroughStore() throws Exception {
+        try (PatronStore store = new PatronStore(dataFile, 2)) {
+            Checkout checkout = new Checkout(store);
+            Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 10);
+            checkout.addBook(book);
+            for (int i = 0; i < 5; i++) {
+                checkout.registerPatron(new Patron("P-0000" + i, "Patron " + i, "p@example.com",
+                        Patron.PatronType.STUDENT));
+            }
+
+            for (int i = 0; i < 5; i++) {
+                Patron patron = checkout.getPatrons().get("P-0000" + i);
+                assertEquals(0.0, checkout.checkoutBook(book, patron), 0.01);
+            }
+            store.get("P-00004").addFine(2.5);
+
+            assertEquals(2, store.getResidentCount());
+            assertTrue(store.getEvictionCount() >= 3);
+            assertTrue(store.getResidentBytesEstimate() > 0);
+
+            // Evicted patrons come back from disk with their loans
+            Patron first = checkout.getPatrons().get("P-00000");
+            assertTrue(first.hasBookCheckedOut(book.getIsbn()));
+            assertEquals(LocalDate.now().plusDays(30), first.getCheckedOutBooks().get(book.getIsbn()));
+            assertEquals(5, checkout.getPatrons().size());
+            assertTrue(store.getMissCount() > 0);
+            assertTrue(store.getHitRate() > 0.0);
+        }
+    }
+
+    @Test
+    @DisplayName("A patron evicted between lookup and checkout keeps its loans")
+    public void testEvictionBetweenLookupAndCheckout() throws Exception {
+        try (PatronStore store = new PatronStore(dataFile, 1)) {
+            Checkout checkout = new Checkout(store);
+            Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 1);
+            checkout.addBook(book);
+            checkout.registerPatron(new Patron("P-1", "One", "one@example.com", Patron.PatronType.STUDENT));
+            checkout.registerPatron(new Patron("P-2", "Two", "two@example.com", Patron.PatronType.STUDENT));
+
+            Patron p1 = store.get("P-1");
+            store.get("P-2"); // evicts P-1
+            assertEquals(0.0, checkout.checkoutBook(book, p1), 0.01);
+
+            store.get("P-2"); // evicts P-1 again, with its new loan
+            assertTrue(store.get("P-1").hasBookCheckedOut(book.getIsbn()));
+            assertEquals(0, book.getAvailableCopies());
+
+            store.get("P-2");
+            assertEquals(0.0, checkout.returnBook(book.getIsbn(), p1), 0.01);
+            assertFalse(store.get("P-1").hasBookCheckedOut(book.getIsbn()));
+            assertEquals(1, book.getAvailableCopies());
+
+            // A held patron changed directly after eviction is written by the checkpoint
+            store.get("P-2");
+            p1.addFine(1.5);
+            store.checkpoint();
+        }
+        try (PatronStore reopened = new PatronStore(dataFile, 1)) {
+            assertEquals(1.5, reopened.get("P-1").getFineBalance(), 0.001);
+            assertFalse(reopened.get("P-1").hasBookCheckedOut("0123456789"));
+        }
+    }
+
+    @Test
+    @DisplayName("Evicted patrons with a borrowing history are garbage collected")
+    public void testEvictedPatronsAreCollected() throws Exception {
+        try (PatronStore store = new PatronStore(dataFile, 10)) {
+            Checkout checkout = new Checkout(store);
+            Book book = new Book("0123456789", "Title", "Author", Book.BookType.FICTION, 10);
+            checkout.addBook(book);
+            List<WeakReference<Patron>> instances = new ArrayList<>();
+            for (int i = 0; i < 5_000; i++) {
+                Patron patron = new Patron("P-" + i, "Patron", "p@example.com", Patron.PatronType.STUDENT);
+                checkout.registerPatron(patron);
+                assertEquals(0.0, checkout.checkoutBook(book, patron), 0.01);
+                assertEquals(0.0, checkout.returnBook(book.getIsbn(), patron), 0.01);
+                instances.add(new WeakReference<>(patron));
+            }
+
+            long alive = instances.size();
+            for (int attempt = 0; attempt < 20 && alive > 10; attempt++) {
+                System.gc();
+                Thread.sleep(10);
+                alive = instances.stream().filter(ref -> ref.get() != null).count();
+            }
+            assertEquals(10, store.getResidentCount());
+            assertEquals(10, alive, "only the resident patrons stay reachable");
+            assertEquals(0, store.getDetachedCount());
+            assertEquals(1, checkout.getBorrowingCount("P-0"), "the history survives eviction");
+        }
+    }
+
+    @Test
+    @DisplayName("State survives a reopen after checkpoint and after a missing checkpoint")
+    public void testReopen() throws Exception {
+        try (PatronStore store = new PatronStore(dataFile, 10)) {
+            Patron patron = new Patron("P-00001", "Alice", "alice@example.com", Patron.PatronType.FACULTY);
+            patron.addFine(4.0);
+            patron.addCheckedOutBook("0123456789", LocalDate.of(2026, 1, 15));
+            store.put(patron.getPatronId(), patron);
+        }
+
+        // Append after the checkpoint without writing a new index (simulated crash)
+        PatronStore crashed = new PatronStore(dataFile, 1);
+        crashed.put("P-00002", new Patron("P-00002", "Bob", null, Patron.PatronType.CHILD));
+        crashed.get("P-00001");
+
+        try (PatronStore reopened = new PatronStore(dataFile, 10)) {
+            Patron alice = reopened.get("P-00001");
+            assertEquals("alice@example.com", alice.getEmail());
+            assertEquals(4.0, alice.getFineBalance(), 0.001);
+            assertEquals(LocalDate.of(2026, 1, 15), alice.getCheckedOutBooks().get("0123456789"));
+            assertNotNull(reopened.get("P-00002"), "Record written by eviction is recovered from the data tail");
+            assertNull(reopened.get("P-00002").getEmail());
+        }
+    }
+}